@@ -2,13 +2,55 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 public class ImageBlackWhiteConverter extends JFrame {
 
     private BufferedImage originalImage;
+    private ImageAnalysis analysis; // of originalImage, filled in as it is needed
     private JLabel imageLabel;
+    private Preview preview; // the icon on imageLabel
+    private JComboBox<Mode> modeBox;
 
     public ImageBlackWhiteConverter() {
         setTitle("Image Black & White Converter");
@@ -36,7 +78,11 @@ public class ImageBlackWhiteConverter extends JFrame {
         uploadBtn.setFont(new Font("Arial", Font.BOLD, 14));
         convertBtn.setFont(new Font("Arial", Font.BOLD, 14));
 
+        modeBox = new JComboBox<>(Mode.values());
+        modeBox.setFont(new Font("Arial", Font.PLAIN, 14));
+
         buttonPanel.add(uploadBtn);
+        buttonPanel.add(modeBox);
         buttonPanel.add(convertBtn);
         add(buttonPanel, BorderLayout.SOUTH);
 
@@ -57,6 +103,7 @@ public class ImageBlackWhiteConverter extends JFrame {
             try {
                 originalImage = ImageIO.read(file);
                 if (originalImage != null) {
+                    analysis = new ImageAnalysis(originalImage);
                     displayImage(originalImage);
                 } else {
                     JOptionPane.showMessageDialog(this, "Invalid image file.", "Error", JOptionPane.ERROR_MESSAGE);
@@ -68,22 +115,18 @@ public class ImageBlackWhiteConverter extends JFrame {
     }
 
     private void displayImage(BufferedImage img) {
-        // Resize to fit panel while keeping aspect ratio
-        int labelWidth = imageLabel.getWidth();
-        int labelHeight = imageLabel.getHeight();
-        int imgWidth = img.getWidth();
-        int imgHeight = img.getHeight();
-
-        double widthRatio = (double) labelWidth / imgWidth;
-        double heightRatio = (double) labelHeight / imgHeight;
-        double scale = Math.min(widthRatio, heightRatio);
-
-        int newWidth = (int) (imgWidth * scale);
-        int newHeight = (int) (imgHeight * scale);
+        showPreview(new Preview(img, imageLabel));
+    }
 
-        Image scaledImage = img.getScaledInstance(newWidth, newHeight, Image.SCALE_SMOOTH);
-        imageLabel.setIcon(new ImageIcon(scaledImage));
+    // The icon fits itself to the label on every paint, so resizing needs nothing here
+    private void showPreview(Preview next) {
+        if (preview != null) {
+            preview.cancel();
+        }
+        preview = next;
+        imageLabel.setIcon(next);
         imageLabel.setText("");
+        next.start();
     }
 
     private void convertImage() {
@@ -92,54 +135,1310 @@ public class ImageBlackWhiteConverter extends JFrame {
             return;
         }
 
-        if (isAlreadyBlackAndWhite(originalImage)) {
+        Mode mode = (Mode) modeBox.getSelectedItem();
+        if (isAlreadyBlackAndWhite(mode)) {
             JOptionPane.showMessageDialog(this, "The given image is already black and white.", "Info", JOptionPane.INFORMATION_MESSAGE);
         } else {
-            BufferedImage bwImage = convertToBW(originalImage);
+            BufferedImage bwImage = convertToBW(mode);
+            analysis = mode == Mode.GRAY ? analysis.converted(bwImage) : new ImageAnalysis(bwImage);
             originalImage = bwImage;
-            displayImage(bwImage);
+            if (mode == Mode.GRAY) {
+                // luminance is per pixel, so the existing levels convert as they are
+                showPreview(preview.mapped(bwImage, Filters.LUMA));
+            } else {
+                displayImage(bwImage);
+            }
             JOptionPane.showMessageDialog(this, "Image has been converted to black and white.", "Done", JOptionPane.INFORMATION_MESSAGE);
         }
     }
 
-    private boolean isAlreadyBlackAndWhite(BufferedImage img) {
-        int width = img.getWidth();
-        int height = img.getHeight();
+    private boolean isAlreadyBlackAndWhite(Mode mode) {
+        return mode.alreadyDone(analysis);
+    }
 
-        for (int y = 0; y < height; y++) {
+    private BufferedImage convertToBW(Mode mode) {
+        return mode.apply(analysis, 128);
+    }
+
+    /**
+     * The on-screen copy of an image: a mipmap pyramid where level 0 is the image itself and each
+     * further level halves the one before with a 2x2 box filter. Levels are built off the EDT and
+     * the label repaints as each arrives; painting draws the smallest level that still covers the
+     * fitted size, so the final bilinear scale never reduces by more than 2x.
+     */
+    static final class Preview implements Icon {
+        private static final int MIN_SIZE = 64;
+
+        private final JComponent owner;
+        private final List<BufferedImage> levels = new ArrayList<>(); // touched only on the EDT
+        private final SwingWorker<Void, BufferedImage> builder;
+
+        Preview(BufferedImage img, JComponent owner) {
+            this(img, owner, List.of(), null);
+        }
+
+        /** The first levels come from {@code derived} passed through {@code filter}. */
+        private Preview(BufferedImage img, JComponent owner, List<BufferedImage> derived, RowFilter filter) {
+            this.owner = owner;
+            levels.add(img);
+            builder = new SwingWorker<Void, BufferedImage>() {
+                @Override
+                protected Void doInBackground() {
+                    BufferedImage level = img;
+                    for (BufferedImage d : derived) {
+                        if (isCancelled()) {
+                            return null;
+                        }
+                        level = new BandProcessor(ForkJoinPool.commonPool()).apply(d, BufferedImage.TYPE_INT_RGB, filter);
+                        publish(level);
+                    }
+                    while (!isCancelled() && Math.max(level.getWidth(), level.getHeight()) > MIN_SIZE) {
+                        level = halve(level);
+                        publish(level);
+                    }
+                    return null;
+                }
+
+                @Override
+                protected void process(List<BufferedImage> built) {
+                    if (!isCancelled()) {
+                        levels.addAll(built);
+                        owner.repaint();
+                    }
+                }
+            };
+        }
+
+        /** The preview of {@code img}, a per-pixel {@code filter} of this image, reusing the levels built so far. */
+        Preview mapped(BufferedImage img, RowFilter filter) {
+            return new Preview(img, owner, new ArrayList<>(levels.subList(1, levels.size())), filter);
+        }
+
+        void start() {
+            builder.execute();
+        }
+
+        void cancel() {
+            builder.cancel(false);
+        }
+
+        @Override
+        public int getIconWidth() {
+            return fitted().width;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return fitted().height;
+        }
+
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            Dimension size = fitted();
+            BufferedImage level = levels.get(0);
+            for (int i = levels.size() - 1; i > 0; i--) {
+                BufferedImage l = levels.get(i);
+                if (l.getWidth() >= size.width && l.getHeight() >= size.height) {
+                    level = l;
+                    break;
+                }
+            }
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.drawImage(level, x, y, size.width, size.height, null);
+            g2.dispose();
+        }
+
+        // Fit the owner's inner area, keeping the aspect ratio
+        private Dimension fitted() {
+            Insets in = owner.getInsets();
+            BufferedImage img = levels.get(0);
+            double scale = Math.min((double) (owner.getWidth() - in.left - in.right) / img.getWidth(),
+                    (double) (owner.getHeight() - in.top - in.bottom) / img.getHeight());
+            return new Dimension(Math.max(1, (int) (img.getWidth() * scale)), Math.max(1, (int) (img.getHeight() * scale)));
+        }
+
+        /** Half size, rounding up; each pixel is the mean of a 2x2 block, edges repeating the last row or column. */
+        static BufferedImage halve(BufferedImage src) {
+            int w = src.getWidth(), h = src.getHeight(), hw = (w + 1) / 2, hh = (h + 1) / 2;
+            BufferedImage dst = new BufferedImage(hw, hh,
+                    src.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            int[] out = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+            PixelRows in = new PixelRows(src);
+            int[] r0 = new int[w], r1 = new int[w];
+            for (int y = 0; y < hh; y++) {
+                in.read(2 * y, r0);
+                in.read(Math.min(2 * y + 1, h - 1), r1);
+                for (int x = 0, o = y * hw; x < hw; x++) {
+                    int a = 2 * x, b = Math.min(a + 1, w - 1);
+                    out[o + x] = mean(r0[a], r0[b], r1[a], r1[b]);
+                }
+            }
+            return dst;
+        }
+
+        // Channels two at a time in 16-bit lanes: four 8-bit values plus rounding cannot overflow one
+        private static int mean(int p, int q, int r, int s) {
+            int rb = (p & 0xFF00FF) + (q & 0xFF00FF) + (r & 0xFF00FF) + (s & 0xFF00FF) + 0x20002;
+            int ag = (p >>> 8 & 0xFF00FF) + (q >>> 8 & 0xFF00FF) + (r >>> 8 & 0xFF00FF) + (s >>> 8 & 0xFF00FF) + 0x20002;
+            return (ag >>> 2 & 0xFF00FF) << 8 | (rb >>> 2 & 0xFF00FF);
+        }
+    }
+
+    /**
+     * Whole rows of an image as packed ARGB (the same values getRGB returns). For the common
+     * int and byte layouts rows are copied straight from the DataBuffer instead of going through
+     * the ColorModel pixel by pixel; any other type falls back to bulk getRGB/setRGB.
+     */
+    static final class PixelRows {
+        private final BufferedImage img;
+        private final int type;          // the image type if a fast path applies, else TYPE_CUSTOM
+        private final int[] ints;
+        private final byte[] bytes;
+        private final int base;          // index of pixel (0, 0)
+        private final int rowStride, pixelStride;
+        private final int[] bandOffsets; // byte layouts: offsets of R, G, B (and A)
+        private final int bitOffset;     // TYPE_BYTE_BINARY: bit index of pixel 0 within a row
+
+        PixelRows(BufferedImage img) {
+            this.img = img;
+            WritableRaster raster = img.getRaster();
+            DataBuffer db = raster.getDataBuffer();
+            int t = img.getType();
+            int[] ints = null;
+            byte[] bytes = null;
+            int base = 0, rowStride = 0, pixelStride = 1, bitOffset = 0;
+            int[] bandOffsets = null;
+            if ((t == BufferedImage.TYPE_INT_RGB || t == BufferedImage.TYPE_INT_ARGB || t == BufferedImage.TYPE_INT_BGR)
+                    && db instanceof DataBufferInt && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+                ints = ((DataBufferInt) db).getData();
+                rowStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            } else if ((t == BufferedImage.TYPE_3BYTE_BGR || t == BufferedImage.TYPE_4BYTE_ABGR)
+                    && db instanceof DataBufferByte && raster.getSampleModel() instanceof ComponentSampleModel) {
+                ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+                bytes = ((DataBufferByte) db).getData();
+                rowStride = sm.getScanlineStride();
+                pixelStride = sm.getPixelStride();
+                bandOffsets = sm.getBandOffsets();
+            } else if (t == BufferedImage.TYPE_BYTE_BINARY && db instanceof DataBufferByte
+                    && raster.getSampleModel() instanceof MultiPixelPackedSampleModel
+                    && ((MultiPixelPackedSampleModel) raster.getSampleModel()).getPixelBitStride() == 1
+                    && isBlackWhitePalette(img.getColorModel())) {
+                MultiPixelPackedSampleModel sm = (MultiPixelPackedSampleModel) raster.getSampleModel();
+                bytes = ((DataBufferByte) db).getData();
+                rowStride = sm.getScanlineStride();
+                pixelStride = 0; // addressed in bits, see bitOffset
+                bitOffset = sm.getDataBitOffset() - raster.getSampleModelTranslateX();
+            } else {
+                t = BufferedImage.TYPE_CUSTOM;
+            }
+            if (t != BufferedImage.TYPE_CUSTOM) {
+                // sub-images share their parent's buffer, shifted by the sample model translation
+                base = db.getOffset() - raster.getSampleModelTranslateY() * rowStride - raster.getSampleModelTranslateX() * pixelStride;
+            }
+            this.type = t;
+            this.ints = ints;
+            this.bytes = bytes;
+            this.base = base;
+            this.rowStride = rowStride;
+            this.pixelStride = pixelStride;
+            this.bandOffsets = bandOffsets;
+            this.bitOffset = bitOffset;
+        }
+
+        /** The default TYPE_BYTE_BINARY palette: 0 is black, 1 is white. */
+        private static boolean isBlackWhitePalette(ColorModel cm) {
+            if (!(cm instanceof IndexColorModel)) {
+                return false;
+            }
+            IndexColorModel icm = (IndexColorModel) cm;
+            return icm.getMapSize() == 2 && icm.getRGB(0) == 0xFF000000 && icm.getRGB(1) == 0xFFFFFFFF;
+        }
+
+        int width() { return img.getWidth(); }
+        int height() { return img.getHeight(); }
+        boolean isFastPath() { return type != BufferedImage.TYPE_CUSTOM; }
+
+        /** One bit per pixel, white where the luminance is at least 128; whole bytes when the row starts on one. */
+        private void writeBits(int i, int w, int[] argb) {
+            int x = 0;
+            if ((bitOffset & 7) == 0) {
+                for (int o = i + (bitOffset >> 3); x + 8 <= w; x += 8, o++) {
+                    int packed = 0;
+                    for (int k = 0; k < 8; k++) {
+                        packed = packed << 1 | (Filters.luma(argb[x + k]) >>> 7);
+                    }
+                    bytes[o] = (byte) packed;
+                }
+            }
+            for (; x < w; x++) {
+                int bit = bitOffset + x, o = i + (bit >> 3), mask = 0x80 >> (bit & 7);
+                bytes[o] = (byte) (Filters.luma(argb[x]) >= 128 ? bytes[o] | mask : bytes[o] & ~mask);
+            }
+        }
+
+        void read(int y, int[] argb) {
+            int w = img.getWidth(), i = base + y * rowStride;
+            switch (type) {
+                case BufferedImage.TYPE_INT_ARGB:
+                    System.arraycopy(ints, i, argb, 0, w);
+                    break;
+                case BufferedImage.TYPE_INT_RGB:
+                    for (int x = 0; x < w; x++) argb[x] = 0xFF000000 | ints[i + x];
+                    break;
+                case BufferedImage.TYPE_INT_BGR:
+                    for (int x = 0; x < w; x++) {
+                        int v = ints[i + x];
+                        argb[x] = 0xFF000000 | (v & 0xFF) << 16 | (v & 0xFF00) | (v >> 16) & 0xFF;
+                    }
+                    break;
+                case BufferedImage.TYPE_3BYTE_BGR: {
+                    int r = i + bandOffsets[0], g = i + bandOffsets[1], b = i + bandOffsets[2];
+                    for (int x = 0, o = 0; x < w; x++, o += pixelStride) {
+                        argb[x] = 0xFF000000 | (bytes[r + o] & 0xFF) << 16 | (bytes[g + o] & 0xFF) << 8 | (bytes[b + o] & 0xFF);
+                    }
+                    break;
+                }
+                case BufferedImage.TYPE_4BYTE_ABGR: {
+                    int r = i + bandOffsets[0], g = i + bandOffsets[1], b = i + bandOffsets[2], a = i + bandOffsets[3];
+                    for (int x = 0, o = 0; x < w; x++, o += pixelStride) {
+                        argb[x] = (bytes[a + o] & 0xFF) << 24 | (bytes[r + o] & 0xFF) << 16 | (bytes[g + o] & 0xFF) << 8 | (bytes[b + o] & 0xFF);
+                    }
+                    break;
+                }
+                case BufferedImage.TYPE_BYTE_BINARY:
+                    for (int x = 0; x < w; x++) {
+                        int bit = bitOffset + x;
+                        argb[x] = (bytes[i + (bit >> 3)] >> (7 - (bit & 7)) & 1) != 0 ? 0xFFFFFFFF : 0xFF000000;
+                    }
+                    break;
+                default:
+                    img.getRGB(0, y, w, 1, argb, 0, w);
+            }
+        }
+
+        void write(int y, int[] argb) {
+            int w = img.getWidth(), i = base + y * rowStride;
+            switch (type) {
+                case BufferedImage.TYPE_INT_ARGB:
+                    System.arraycopy(argb, 0, ints, i, w);
+                    break;
+                case BufferedImage.TYPE_INT_RGB:
+                    for (int x = 0; x < w; x++) ints[i + x] = argb[x] & 0xFFFFFF;
+                    break;
+                case BufferedImage.TYPE_INT_BGR:
+                    for (int x = 0; x < w; x++) {
+                        int v = argb[x];
+                        ints[i + x] = (v & 0xFF) << 16 | (v & 0xFF00) | (v >> 16) & 0xFF;
+                    }
+                    break;
+                case BufferedImage.TYPE_3BYTE_BGR: {
+                    int r = i + bandOffsets[0], g = i + bandOffsets[1], b = i + bandOffsets[2];
+                    for (int x = 0, o = 0; x < w; x++, o += pixelStride) {
+                        int v = argb[x];
+                        bytes[r + o] = (byte) (v >> 16);
+                        bytes[g + o] = (byte) (v >> 8);
+                        bytes[b + o] = (byte) v;
+                    }
+                    break;
+                }
+                case BufferedImage.TYPE_4BYTE_ABGR: {
+                    int r = i + bandOffsets[0], g = i + bandOffsets[1], b = i + bandOffsets[2], a = i + bandOffsets[3];
+                    for (int x = 0, o = 0; x < w; x++, o += pixelStride) {
+                        int v = argb[x];
+                        bytes[a + o] = (byte) (v >>> 24);
+                        bytes[r + o] = (byte) (v >> 16);
+                        bytes[g + o] = (byte) (v >> 8);
+                        bytes[b + o] = (byte) v;
+                    }
+                    break;
+                }
+                case BufferedImage.TYPE_BYTE_BINARY:
+                    writeBits(i, w, argb);
+                    break;
+                default:
+                    img.setRGB(0, y, w, 1, argb, 0, w);
+            }
+        }
+    }
+
+    /** One per-pixel stage of a conversion: rewrites a row of packed ARGB in place. */
+    interface RowFilter {
+        void apply(int[] row, int width, int y);
+
+        /** True if rows must arrive top to bottom on one thread, as error diffusion needs. */
+        default boolean sequential() {
+            return false;
+        }
+    }
+
+    /**
+     * Runs a chain of RowFilters over an image on a ForkJoinPool, one band of rows per task, each
+     * row read once, passed through every filter and written once. Bands are contiguous runs of
+     * rows, so threads working on neighbouring bands share at most the cache line at each boundary.
+     */
+    static final class BandProcessor {
+        private final ForkJoinPool pool;
+
+        BandProcessor(ForkJoinPool pool) {
+            this.pool = pool;
+        }
+
+        BufferedImage apply(BufferedImage src, int outputType, RowFilter... chain) {
+            BufferedImage out = new BufferedImage(src.getWidth(), src.getHeight(), outputType);
+            apply(src, out, chain);
+            return out;
+        }
+
+        void apply(BufferedImage src, BufferedImage dst, RowFilter... chain) {
+            if (src.getWidth() != dst.getWidth() || src.getHeight() != dst.getHeight()) {
+                throw new IllegalArgumentException("Source and destination sizes differ");
+            }
+            PixelRows in = new PixelRows(src), out = new PixelRows(dst);
+            int height = src.getHeight();
+            int band = bandRows(height, pool.getParallelism());
+            for (RowFilter f : chain) {
+                if (f.sequential()) {
+                    band = Math.max(1, height); // one band: rows in order on one thread
+                }
+            }
+            pool.invoke(new BandTask(in, out, chain, band, 0, (height + band - 1) / band));
+        }
+
+        /** About four bands per thread. */
+        static int bandRows(int height, int parallelism) {
+            return Math.max(1, (height + 4 * parallelism - 1) / (4 * parallelism));
+        }
+
+        private static final class BandTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final PixelRows in, out;
+            private final RowFilter[] chain;
+            private final int bandRows, from, to;
+
+            BandTask(PixelRows in, PixelRows out, RowFilter[] chain, int bandRows, int from, int to) {
+                this.in = in;
+                this.out = out;
+                this.chain = chain;
+                this.bandRows = bandRows;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > 1) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new BandTask(in, out, chain, bandRows, from, mid), new BandTask(in, out, chain, bandRows, mid, to));
+                    return;
+                }
+                int width = in.width(), end = Math.min(in.height(), to * bandRows);
+                int[] row = new int[width];
+                for (int y = from * bandRows; y < end; y++) {
+                    in.read(y, row);
+                    for (RowFilter f : chain) {
+                        f.apply(row, width, y);
+                    }
+                    out.write(y, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * What one traversal of an image tells us: whether it is gray, and a histogram of its
+     * luminance (Filters.luma, the levels Mode.GRAY produces) with summary statistics. Nothing is
+     * computed until asked for, and everything is kept, so it lives alongside the loaded image.
+     * A sparse sample settles "not gray" for most color images without a full pass.
+     */
+    static final class ImageAnalysis {
+        private static final int SAMPLES = 1024;
+        private static final int BAND_PIXELS = 1 << 16;
+
+        private final BufferedImage image;
+        private Boolean gray;
+        private long[] histogram;
+
+        ImageAnalysis(BufferedImage image) {
+            this.image = image;
+        }
+
+        /** Analysis of Mode.GRAY's output for this image: gray, and its histogram is this image's. */
+        synchronized ImageAnalysis converted(BufferedImage grayImage) {
+            ImageAnalysis a = new ImageAnalysis(grayImage);
+            a.gray = true;
+            a.histogram = histogram;
+            return a;
+        }
+
+        BufferedImage image() {
+            return image;
+        }
+
+        synchronized boolean isGray() {
+            if (gray == null) {
+                int t = image.getType();
+                if (t == BufferedImage.TYPE_BYTE_GRAY || t == BufferedImage.TYPE_USHORT_GRAY) {
+                    gray = true;
+                } else if (sampleFindsColor(image)) {
+                    gray = false;
+                } else {
+                    scan();
+                }
+            }
+            return gray;
+        }
+
+        /** True if every pixel is pure black or pure white. */
+        boolean isBinary() {
+            if (!isGray()) {
+                return false;
+            }
+            long[] h = levels();
+            return h[0] + h[255] == pixelCount();
+        }
+
+        /** Otsu's threshold: the level t (t and above become white) that best separates dark from light. */
+        int otsuThreshold() {
+            long[] h = levels();
+            double total = pixelCount(), sumAll = 0;
+            for (int v = 0; v < 256; v++) {
+                sumAll += (double) v * h[v];
+            }
+            double sumBelow = 0, best = -1;
+            long below = 0;
+            int threshold = 128;
+            for (int t = 1; t < 256; t++) {
+                below += h[t - 1];
+                sumBelow += (t - 1.0) * h[t - 1];
+                if (below == 0 || below == total) {
+                    continue;
+                }
+                double m0 = sumBelow / below, m1 = (sumAll - sumBelow) / (total - below);
+                double between = below * (total - below) * (m0 - m1) * (m0 - m1);
+                if (between > best) {
+                    best = between;
+                    threshold = t;
+                }
+            }
+            return threshold;
+        }
+
+        /** Pixel count per luminance level 0..255. */
+        long[] histogram() {
+            return levels().clone();
+        }
+
+        long pixelCount() {
+            return (long) image.getWidth() * image.getHeight();
+        }
+
+        double mean() {
+            long[] h = levels();
+            double sum = 0;
+            for (int v = 0; v < 256; v++) {
+                sum += (double) v * h[v];
+            }
+            return sum / pixelCount();
+        }
+
+        double stdDev() {
+            long[] h = levels();
+            double mean = mean(), sum = 0;
+            for (int v = 0; v < 256; v++) {
+                sum += (v - mean) * (v - mean) * h[v];
+            }
+            return Math.sqrt(sum / pixelCount());
+        }
+
+        int min() {
+            return percentile(0.0);
+        }
+
+        int max() {
+            long[] h = levels();
+            int v = 255;
+            while (v > 0 && h[v] == 0) {
+                v--;
+            }
+            return v;
+        }
+
+        /** Smallest gray level with at least a fraction q of the pixels at or below it. */
+        int percentile(double q) {
+            long[] h = levels();
+            long target = Math.max(1, (long) Math.ceil(q * pixelCount())), seen = 0;
+            for (int v = 0; v < 256; v++) {
+                seen += h[v];
+                if (seen >= target) {
+                    return v;
+                }
+            }
+            return 255;
+        }
+
+        private synchronized long[] levels() {
+            if (histogram == null) {
+                scan();
+            }
+            return histogram;
+        }
+
+        /** The single full pass: histogram and gray test together, on row bands in parallel. */
+        private void scan() {
+            long[] counts = ForkJoinPool.commonPool().invoke(new ScanTask(new PixelRows(image), 0, image.getHeight()));
+            histogram = Arrays.copyOf(counts, 256);
+            if (gray == null) {
+                gray = counts[256] == 0;
+            }
+        }
+
+        /** A fixed spread of pixels; any one with r, g and b not all equal proves the image is not gray. */
+        static boolean sampleFindsColor(BufferedImage img) {
+            int w = img.getWidth(), h = img.getHeight();
+            long n = (long) w * h;
+            if (n <= SAMPLES * 16L) {
+                return false; // small enough that the full pass is cheap
+            }
+            for (int i = 0; i < SAMPLES; i++) {
+                long p = (i * n + n / 2) / SAMPLES;
+                int x = (int) ((p * 0x9E3779B97F4A7C15L >>> 1) % w); // spread columns, one sample per stripe of rows
+                int rgb = img.getRGB(x, (int) (p / w));
+                if (((rgb >> 16) & 0xFF) != (rgb & 0xFF) || ((rgb >> 8) & 0xFF) != (rgb & 0xFF)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Counts per gray level in [0, 256) and the number of non-gray pixels at [256]. */
+        private static final class ScanTask extends RecursiveTask<long[]> {
+            private static final long serialVersionUID = 1L;
+
+            private final PixelRows rows;
+            private final int from, to;
+
+            ScanTask(PixelRows rows, int from, int to) {
+                this.rows = rows;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected long[] compute() {
+                if (to - from > 1 && (long) (to - from) * rows.width() > BAND_PIXELS) {
+                    int mid = (from + to) >>> 1;
+                    ScanTask right = new ScanTask(rows, mid, to);
+                    right.fork();
+                    long[] left = new ScanTask(rows, from, mid).compute(), r = right.join();
+                    for (int i = 0; i < left.length; i++) {
+                        left[i] += r[i];
+                    }
+                    return left;
+                }
+                long[] counts = new long[257];
+                int[] row = new int[rows.width()];
+                for (int y = from; y < to; y++) {
+                    rows.read(y, row);
+                    for (int v : row) {
+                        counts[Filters.luma(v)]++;
+                        if (((v >> 16) & 0xFF) != (v & 0xFF) || ((v >> 8) & 0xFF) != (v & 0xFF)) {
+                            counts[256]++;
+                        }
+                    }
+                }
+                return counts;
+            }
+        }
+    }
+
+    /**
+     * Luminance and black-and-white stages for BandProcessor. A chain such as LUMA then
+     * floydSteinberg runs as one pass: each row is read once, goes through every stage and is
+     * written once. The black-and-white stages expect gray input (LUMA first) and emit pure
+     * black or white.
+     */
+    static final class Filters {
+        // Rec. 601 weights scaled by 2^16, with the rounding folded into blue; they sum to
+        // exactly 2^16, so a gray pixel keeps its level
+        private static final int[] R = new int[256], G = new int[256], B = new int[256];
+        private static final int[] BAYER = new int[64];
+
+        static {
+            for (int v = 0; v < 256; v++) {
+                R[v] = v * 19595;
+                G[v] = v * 38470;
+                B[v] = v * 7471 + 0x8000;
+            }
+            for (int y = 0; y < 8; y++) {
+                for (int x = 0; x < 8; x++) {
+                    int m = 0;
+                    for (int bit = 0; bit < 3; bit++) {
+                        m = m << 2 | ((x ^ y) >> bit & 1) << 1 | (y >> bit & 1);
+                    }
+                    BAYER[y * 8 + x] = m;
+                }
+            }
+        }
+
+        static final RowFilter LUMA = (row, width, y) -> {
             for (int x = 0; x < width; x++) {
-                int rgb = img.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-                if (!(r == g && g == b)) {
-                    return false;
+                row[x] = 0xFF000000 | luma(row[x]) * 0x010101;
+            }
+        };
+
+        /** 0.299 R + 0.587 G + 0.114 B, rounded, from the lookup tables. */
+        static int luma(int argb) {
+            return (R[(argb >> 16) & 0xFF] + G[(argb >> 8) & 0xFF] + B[argb & 0xFF]) >>> 16;
+        }
+
+        /** Levels at or above t become white. */
+        static RowFilter threshold(int t) {
+            return (row, width, y) -> {
+                for (int x = 0; x < width; x++) {
+                    row[x] = (row[x] & 0xFF) >= t ? 0xFFFFFFFF : 0xFF000000;
+                }
+            };
+        }
+
+        /** 8x8 Bayer ordered dither: position-dependent thresholds, so bands stay independent. */
+        static RowFilter ordered() {
+            return (row, width, y) -> {
+                int r = (y & 7) * 8;
+                for (int x = 0; x < width; x++) {
+                    row[x] = (row[x] & 0xFF) * 64 > BAYER[r + (x & 7)] * 255 + 127 ? 0xFFFFFFFF : 0xFF000000;
+                }
+            };
+        }
+
+        /** Floyd-Steinberg error diffusion; a new instance per image, and rows must come in order. */
+        static RowFilter floydSteinberg(int width, int threshold) {
+            int[][] err = new int[2][width + 2]; // sixteenths, this row and the next, shifted by one column
+            return new RowFilter() {
+                @Override
+                public void apply(int[] row, int w, int y) {
+                    int[] cur = err[y & 1], next = err[(y + 1) & 1];
+                    Arrays.fill(next, 0);
+                    for (int x = 0; x < w; x++) {
+                        int v = (row[x] & 0xFF) + (cur[x + 1] + 8 >> 4);
+                        int out = v >= threshold ? 255 : 0, e = v - out;
+                        row[x] = out == 255 ? 0xFFFFFFFF : 0xFF000000;
+                        cur[x + 2] += 7 * e;
+                        next[x] += 3 * e;
+                        next[x + 1] += 5 * e;
+                        next[x + 2] += e;
+                    }
                 }
+
+                @Override
+                public boolean sequential() {
+                    return true;
+                }
+            };
+        }
+    }
+
+    /** The conversions the UI and batch mode offer. */
+    enum Mode {
+        GRAY("Grayscale", "gray"),
+        OTSU("Black & White (auto threshold)", "otsu"),
+        THRESHOLD("Black & White (fixed threshold)", "threshold"),
+        FLOYD_STEINBERG("Dithered (Floyd-Steinberg)", "floyd"),
+        ORDERED("Dithered (ordered)", "ordered");
+
+        private final String label, option;
+
+        Mode(String label, String option) {
+            this.label = label;
+            this.option = option;
+        }
+
+        boolean isBinary() {
+            return this != GRAY;
+        }
+
+        /** True if the analysed image already looks like this mode's output. */
+        boolean alreadyDone(ImageAnalysis analysis) {
+            return isBinary() ? analysis.isBinary() : analysis.isGray();
+        }
+
+        /** One fused pass; binary modes produce 1-bit TYPE_BYTE_BINARY, gray TYPE_INT_RGB. */
+        BufferedImage apply(ImageAnalysis analysis, int fixedThreshold) {
+            BufferedImage img = analysis.image();
+            RowFilter second;
+            switch (this) {
+                case GRAY:
+                    return new BandProcessor(ForkJoinPool.commonPool()).apply(img, BufferedImage.TYPE_INT_RGB, Filters.LUMA);
+                case OTSU:
+                    second = Filters.threshold(analysis.otsuThreshold());
+                    break;
+                case THRESHOLD:
+                    second = Filters.threshold(fixedThreshold);
+                    break;
+                case FLOYD_STEINBERG:
+                    second = Filters.floydSteinberg(img.getWidth(), fixedThreshold);
+                    break;
+                default:
+                    second = Filters.ordered();
             }
+            return new BandProcessor(ForkJoinPool.commonPool()).apply(img, BufferedImage.TYPE_BYTE_BINARY, Filters.LUMA, second);
         }
-        return true;
+
+        static Mode fromOption(String option) {
+            for (Mode m : values()) {
+                if (m.option.equals(option)) {
+                    return m;
+                }
+            }
+            throw new IllegalArgumentException("Unknown mode: " + option);
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * Headless conversion of a directory tree: decode, convert and encode stages on their own
+     * threads, connected by bounded queues. A full queue blocks the stage before it, so at most
+     * (decoders + converters + encoders + 2 * queue) images are in memory whatever the file count.
+     */
+    static final class BatchConverter {
+        private static final Item END = new Item(null, null, false);
+
+        private static final class Item {
+            final Path source;
+            final BufferedImage image;
+            final boolean skipped;
+
+            Item(Path source, BufferedImage image, boolean skipped) {
+                this.source = source;
+                this.image = image;
+                this.skipped = skipped;
+            }
+        }
+
+        private final Path inputDir, outputDir;
+        private final boolean skipGray;
+        private final Mode mode;
+        private final int threshold;
+        private final int decoders, converters, encoders, queueCapacity;
+        private final String format; // null keeps each file's own format
+
+        private final AtomicInteger converted = new AtomicInteger(), skipped = new AtomicInteger(), failed = new AtomicInteger();
+        private final AtomicLong pixels = new AtomicLong();
+
+        BatchConverter(Path inputDir, Path outputDir, Mode mode, int threshold, boolean skipGray, int decoders, int converters,
+                       int encoders, int queueCapacity, String format) {
+            this.inputDir = inputDir;
+            this.outputDir = outputDir;
+            this.mode = mode;
+            this.threshold = threshold;
+            this.skipGray = skipGray;
+            this.decoders = decoders;
+            this.converters = converters;
+            this.encoders = encoders;
+            this.queueCapacity = queueCapacity;
+            this.format = format;
+        }
+
+        void run() throws IOException, InterruptedException {
+            if (!Files.isDirectory(inputDir)) {
+                throw new IOException("Not a directory: " + inputDir);
+            }
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(inputDir)) {
+                files = walk.filter(Files::isRegularFile).filter(p -> formatOf(p) != null).sorted().collect(Collectors.toList());
+            }
+            ImageIO.setUseCache(false); // decode from memory, not through temp files
+            ConcurrentLinkedQueue<Path> todo = new ConcurrentLinkedQueue<>(files);
+            BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(queueCapacity);
+            BlockingQueue<Item> done = new ArrayBlockingQueue<>(queueCapacity);
+            System.out.printf("Converting %d images from %s to %s (%d decoders, %d converters, %d encoders, queue %d, skip done: %s)%n",
+                    files.size(), inputDir, mode, decoders, converters, encoders, queueCapacity, skipGray);
+
+            long t0 = System.nanoTime();
+            List<Thread> decodeThreads = start("decode", decoders, () -> decode(todo, decoded));
+            List<Thread> convertThreads = start("convert", converters, () -> convert(decoded, done));
+            List<Thread> encodeThreads = start("encode", encoders, () -> encode(done));
+            finish(decodeThreads, decoded, converters);
+            finish(convertThreads, done, encoders);
+            finish(encodeThreads, null, 0);
+            double seconds = (System.nanoTime() - t0) / 1e9;
+
+            System.out.printf("Done: %d converted, %d skipped (already %s), %d failed in %.2f s: %.1f files/s, %.1f MP/s%n",
+                    converted.get(), skipped.get(), mode.isBinary() ? "black and white" : "gray", failed.get(), seconds, files.size() / seconds, pixels.get() / 1e6 / seconds);
+        }
+
+        private interface Stage {
+            void run() throws InterruptedException;
+        }
+
+        private static List<Thread> start(String name, int count, Stage stage) {
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Thread t = new Thread(() -> {
+                    try {
+                        stage.run();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, name + "-" + i);
+                t.start();
+                threads.add(t);
+            }
+            return threads;
+        }
+
+        /** Waits for a stage to drain, then tells each consumer of its queue to stop. */
+        private static void finish(List<Thread> threads, BlockingQueue<Item> next, int consumers) throws InterruptedException {
+            for (Thread t : threads) {
+                t.join();
+            }
+            for (int i = 0; i < consumers; i++) {
+                next.put(END);
+            }
+        }
+
+        private void decode(ConcurrentLinkedQueue<Path> todo, BlockingQueue<Item> out) throws InterruptedException {
+            for (Path p; (p = todo.poll()) != null; ) {
+                try {
+                    BufferedImage img = ImageIO.read(p.toFile());
+                    if (img == null) {
+                        throw new IOException("not a readable image");
+                    }
+                    out.put(new Item(p, img, false));
+                } catch (IOException | RuntimeException ex) {
+                    fail(p, ex);
+                }
+            }
+        }
+
+        private void convert(BlockingQueue<Item> in, BlockingQueue<Item> out) throws InterruptedException {
+            for (Item item; (item = in.take()) != END; ) {
+                try {
+                    pixels.addAndGet((long) item.image.getWidth() * item.image.getHeight());
+                    ImageAnalysis analysis = new ImageAnalysis(item.image);
+                    if (skipGray && mode.alreadyDone(analysis)) {
+                        out.put(new Item(item.source, item.image, true));
+                    } else {
+                        out.put(new Item(item.source, mode.apply(analysis, threshold), false));
+                    }
+                } catch (RuntimeException ex) {
+                    fail(item.source, ex);
+                }
+            }
+        }
+
+        private void encode(BlockingQueue<Item> in) throws InterruptedException {
+            for (Item item; (item = in.take()) != END; ) {
+                try {
+                    String outFormat = format != null ? format : formatOf(item.source);
+                    Path target = outputPath(item.source, outFormat);
+                    Files.createDirectories(target.getParent());
+                    if (item.skipped && outFormat.equals(formatOf(item.source))) {
+                        Files.copy(item.source, target, StandardCopyOption.REPLACE_EXISTING);
+                    } else if (!ImageIO.write(item.image, outFormat, target.toFile())) {
+                        throw new IOException("no " + outFormat + " writer for this image");
+                    }
+                    (item.skipped ? skipped : converted).incrementAndGet();
+                } catch (IOException | RuntimeException ex) {
+                    fail(item.source, ex);
+                }
+            }
+        }
+
+        private Path outputPath(Path source, String outFormat) {
+            Path relative = inputDir.relativize(source);
+            String name = relative.getFileName().toString();
+            if (format != null) {
+                int dot = name.lastIndexOf('.');
+                name = (dot > 0 ? name.substring(0, dot) : name) + "." + outFormat;
+            }
+            Path parent = relative.getParent();
+            return outputDir.resolve(parent == null ? Paths.get(name) : parent.resolve(name));
+        }
+
+        private void fail(Path p, Exception ex) {
+            failed.incrementAndGet();
+            System.err.println("Failed: " + p + ": " + ex.getMessage());
+        }
+
+        static String formatOf(Path p) {
+            String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+            int dot = name.lastIndexOf('.');
+            String ext = dot < 0 ? "" : name.substring(dot + 1);
+            switch (ext) {
+                case "png":
+                case "bmp":
+                case "gif":
+                    return ext;
+                case "jpg":
+                case "jpeg":
+                    return "jpg";
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static void batchUsage(String problem) {
+        if (problem != null) {
+            System.err.println(problem);
+        }
+        System.err.println("Usage: java ImageBlackWhiteConverter batch <inputDir> <outputDir> [--mode gray|otsu|threshold|floyd|ordered] "
+                + "[--threshold 0-255] [--no-skip-gray] [--format png|jpg|bmp] [--decoders n] [--converters n] [--encoders n] [--queue n]");
+        System.exit(2);
+    }
+
+    /** The value following the option at args[i]. */
+    private static String optionValue(String[] args, int i) {
+        if (i + 1 >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i]);
+        }
+        return args[i + 1];
+    }
+
+    private static int intOption(String[] args, int i, int min, int max) {
+        String value = optionValue(args, i);
+        int n;
+        try {
+            n = Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(args[i] + " expects a number, got " + value);
+        }
+        if (n < min || n > max) {
+            throw new IllegalArgumentException(args[i] + " must be " + (max == Integer.MAX_VALUE ? "at least " + min : "between " + min + " and " + max) + ", got " + n);
+        }
+        return n;
     }
 
-    private BufferedImage convertToBW(BufferedImage img) {
-        int width = img.getWidth();
-        int height = img.getHeight();
-        BufferedImage bwImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    private static void runBatch(String[] args) {
+        if (args.length < 3) {
+            batchUsage(null);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        boolean skipGray = true;
+        Mode mode = Mode.GRAY;
+        int threshold = 128;
+        String format = null;
+        int decoders = Math.max(1, cores / 2), converters = Math.max(1, cores / 4), encoders = Math.max(1, cores / 2), queue = 2 * cores;
+        try {
+            for (int i = 3; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--no-skip-gray": skipGray = false; break;
+                    case "--mode": mode = Mode.fromOption(optionValue(args, i++)); break;
+                    case "--threshold": threshold = intOption(args, i++, 0, 255); break;
+                    case "--format":
+                        format = optionValue(args, i++).toLowerCase(Locale.ROOT).replace("jpeg", "jpg");
+                        if (!format.equals("png") && !format.equals("jpg") && !format.equals("bmp")) {
+                            throw new IllegalArgumentException("Unknown format: " + format);
+                        }
+                        break;
+                    case "--decoders": decoders = intOption(args, i++, 1, Integer.MAX_VALUE); break;
+                    case "--converters": converters = intOption(args, i++, 1, Integer.MAX_VALUE); break;
+                    case "--encoders": encoders = intOption(args, i++, 1, Integer.MAX_VALUE); break;
+                    case "--queue": queue = intOption(args, i++, 1, Integer.MAX_VALUE); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            batchUsage(ex.getMessage());
+            return;
+        }
+        try {
+            new BatchConverter(Paths.get(args[1]), Paths.get(args[2]), mode, threshold, skipGray, decoders, converters, encoders, queue, format).run();
+        } catch (IOException ex) {
+            System.err.println("Error: " + ex.getMessage());
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Grayscale conversion of images too large to decode whole. The output is an 8-bit gray image
+     * whose pixels are produced on demand: when the writer asks for a row outside the current
+     * strip, that strip alone is decoded with ImageReadParam.setSourceRegion and converted, so
+     * memory is one decoded strip plus one gray strip. Works with the PNG and JPEG writers, which
+     * pull rows one at a time. The PNG and JPEG readers restart decoding from the top of the file
+     * for each region, so time grows with the number of strips: use the tallest strip that fits.
+     */
+    static final class StripConverter {
+        private final ImageReader reader;
+        private final int width, height, stripRows;
+        private final byte[] gray;
+        private BufferedImage decoded; // reused as the decode destination for every strip
+        private int stripStart = -1, stripEnd = -1; // element range held in gray
+        private int strips;
+        private long peakHeap;
+
+        private StripConverter(ImageReader reader, int stripRows) throws IOException {
+            this.reader = reader;
+            this.width = reader.getWidth(0);
+            this.height = reader.getHeight(0);
+            if ((long) width * height > Integer.MAX_VALUE) {
+                throw new IOException("Image has more than 2^31 pixels");
+            }
+            this.stripRows = Math.max(1, Math.min(stripRows, height));
+            this.gray = new byte[width * this.stripRows];
+        }
+
+        /** Default strip height: about 16 MB of decoded ARGB. */
+        static int defaultStripRows(int width) {
+            return Math.max(16, (16 << 20) / (4 * Math.max(1, width)));
+        }
+
+        static void convert(File input, File output, int stripRows) throws IOException {
+            String name = output.getName().toLowerCase(Locale.ROOT);
+            String format = name.endsWith(".png") ? "png" : name.endsWith(".jpg") || name.endsWith(".jpeg") ? "jpg" : null;
+            if (format == null) {
+                throw new IOException("Streaming output must be .png or .jpg");
+            }
+            try (ImageInputStream iis = ImageIO.createImageInputStream(input)) {
+                Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+                if (readers == null || !readers.hasNext()) {
+                    throw new IOException("No reader for " + input);
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(iis, false, true);
+                    StripConverter sc = new StripConverter(reader, stripRows > 0 ? stripRows : defaultStripRows(reader.getWidth(0)));
+                    long t0 = System.nanoTime();
+                    if (!ImageIO.write(sc.new StripImage(), format, output)) {
+                        throw new IOException("No " + format + " writer");
+                    }
+                    System.out.printf("%s -> %s: %d x %d in %d strips of %d rows, %.2f s, peak heap in use %d MB%n", input, output,
+                            sc.width, sc.height, sc.strips, sc.stripRows, (System.nanoTime() - t0) / 1e9, sc.peakHeap >> 20);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+
+        /** Makes element index i (row-major gray pixel) resident. */
+        private void load(int i) {
+            int y0 = i / width / stripRows * stripRows, rows = Math.min(stripRows, height - y0);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, y0, width, rows));
+            try {
+                if (decoded == null) {
+                    decoded = reader.getImageTypes(0).next().createBufferedImage(width, stripRows);
+                }
+                param.setDestination(decoded);
+                reader.read(0, param);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            PixelRows in = new PixelRows(decoded);
+            int[] row = new int[width];
+            for (int y = 0; y < rows; y++) {
+                in.read(y, row);
+                Filters.LUMA.apply(row, width, y);
+                for (int x = 0, o = y * width; x < width; x++) {
+                    gray[o + x] = (byte) row[x];
+                }
+            }
+            stripStart = y0 * width;
+            stripEnd = stripStart + rows * width;
+            strips++;
+            Runtime rt = Runtime.getRuntime();
+            peakHeap = Math.max(peakHeap, rt.totalMemory() - rt.freeMemory());
+        }
+
+        /** Read-only gray samples backed by the current strip. */
+        private final class StripBuffer extends DataBuffer {
+            StripBuffer() {
+                super(DataBuffer.TYPE_BYTE, width * height);
+            }
+
+            @Override
+            public int getElem(int bank, int i) {
+                if (i < stripStart || i >= stripEnd) {
+                    load(i);
+                }
+                return gray[i - stripStart] & 0xFF;
+            }
+
+            @Override
+            public void setElem(int bank, int i, int val) {
+                throw new UnsupportedOperationException("Strip images are read-only");
+            }
+        }
+
+        /** A single-tile RenderedImage over StripBuffer, in TYPE_BYTE_GRAY's color model. */
+        private final class StripImage implements RenderedImage {
+            private final ColorModel colorModel = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).getColorModel();
+            private final SampleModel sampleModel = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, 1, width, new int[] { 0 });
+            private final Raster raster = Raster.createRaster(sampleModel, new StripBuffer(), null);
+
+            @Override public Vector<RenderedImage> getSources() { return null; }
+            @Override public Object getProperty(String name) { return Image.UndefinedProperty; }
+            @Override public String[] getPropertyNames() { return null; }
+            @Override public ColorModel getColorModel() { return colorModel; }
+            @Override public SampleModel getSampleModel() { return sampleModel; }
+            @Override public int getWidth() { return width; }
+            @Override public int getHeight() { return height; }
+            @Override public int getMinX() { return 0; }
+            @Override public int getMinY() { return 0; }
+            @Override public int getNumXTiles() { return 1; }
+            @Override public int getNumYTiles() { return 1; }
+            @Override public int getMinTileX() { return 0; }
+            @Override public int getMinTileY() { return 0; }
+            @Override public int getTileWidth() { return width; }
+            @Override public int getTileHeight() { return height; }
+            @Override public int getTileGridXOffset() { return 0; }
+            @Override public int getTileGridYOffset() { return 0; }
+            @Override public Raster getTile(int tileX, int tileY) { return raster; }
+            @Override public Raster getData() { return raster; }
 
+            @Override
+            public Raster getData(Rectangle rect) {
+                return raster.createChild(rect.x, rect.y, rect.width, rect.height, rect.x, rect.y, null);
+            }
+
+            @Override
+            public WritableRaster copyData(WritableRaster out) {
+                if (out == null) {
+                    out = raster.createCompatibleWritableRaster();
+                }
+                out.setRect(raster);
+                return out;
+            }
+        }
+    }
+
+    /** Headless timings of the per-pixel getRGB/setRGB loop against the raster paths. */
+    static void runBenchmark(int width, int height) {
+        int[] types = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_USHORT_565_RGB };
+        String[] names = { "TYPE_INT_RGB", "TYPE_3BYTE_BGR", "TYPE_INT_ARGB", "TYPE_4BYTE_ABGR", "TYPE_USHORT_565_RGB" };
+        System.out.printf("%d x %d (%.1f MP), best of 3%n", width, height, width * (double) height / 1e6);
+        System.out.println("type                    convert: per-pixel   raster  speedup | gray check: per-pixel   raster  speedup | same");
+        for (int k = 0; k < types.length; k++) {
+            BufferedImage color = syntheticImage(width, height, types[k], false);
+            BufferedImage gray = syntheticImage(width, height, types[k], true);
+            BufferedImage[] slow = new BufferedImage[1], fast = new BufferedImage[1];
+            long convertSlow = best(() -> slow[0] = perPixelConvert(color));
+            long convertFast = best(() -> fast[0] = Mode.GRAY.apply(new ImageAnalysis(color), 128));
+            long checkSlow = best(() -> perPixelIsGray(gray));
+            long checkFast = best(() -> new ImageAnalysis(gray).isGray());
+            boolean same = new ImageAnalysis(gray).isGray() == perPixelIsGray(gray)
+                    && new ImageAnalysis(color).isGray() == perPixelIsGray(color)
+                    && Arrays.equals(((DataBufferInt) slow[0].getRaster().getDataBuffer()).getData(),
+                            ((DataBufferInt) fast[0].getRaster().getDataBuffer()).getData());
+            System.out.printf("%-22s %15.1f ms %6.1f ms %7.1fx | %17.1f ms %6.1f ms %7.1fx | %s%n", names[k],
+                    convertSlow / 1e6, convertFast / 1e6, (double) convertSlow / convertFast,
+                    checkSlow / 1e6, checkFast / 1e6, (double) checkSlow / checkFast, same);
+        }
+
+        BufferedImage large = syntheticImage(width, height, BufferedImage.TYPE_INT_RGB, false);
+        BufferedImage largeGray = syntheticImage(width, height, BufferedImage.TYPE_INT_RGB, true);
+        long sampled = best(() -> new ImageAnalysis(large).isGray());
+        long fullPass = best(() -> new ImageAnalysis(largeGray).isGray());
+        ImageAnalysis cached = new ImageAnalysis(large);
+        cached.histogram();
+        long reuse = best(() -> cached.converted(Mode.GRAY.apply(cached, 128)).percentile(0.5));
+        System.out.printf("%nImageAnalysis, TYPE_INT_RGB: color image rejected by sampling %.3f ms, "
+                + "gray image full pass (histogram + gray test) %.1f ms, convert + median from cached histogram %.1f ms%n",
+                sampled / 1e6, fullPass / 1e6, reuse / 1e6);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%nBand scaling, TYPE_INT_RGB, %d cores%n", cores);
+        System.out.println("threads   convert  speedup");
+        long single = 0;
+        for (int threads = 1; ; threads = Math.min(cores, threads * 2)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            BandProcessor bands = new BandProcessor(pool);
+            long t = best(() -> bands.apply(large, BufferedImage.TYPE_INT_RGB, Filters.LUMA));
+            pool.shutdown();
+            if (threads == 1) {
+                single = t;
+            }
+            System.out.printf("%7d  %6.1f ms  %6.2fx%n", threads, t / 1e6, (double) single / t);
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+
+    private static long best(Runnable r) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long t0 = System.nanoTime();
+            r.run();
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        return best;
+    }
+
+    static BufferedImage syntheticImage(int width, int height, int type, boolean gray) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        PixelRows rows = new PixelRows(img);
+        Random rnd = new Random(7);
+        int[] row = new int[width];
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                int rgb = img.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-                int gray = (r + g + b) / 3;
-                int newRGB = (gray << 16) | (gray << 8) | gray;
-                bwImage.setRGB(x, y, newRGB);
+                int r = (x * 255 / width + rnd.nextInt(16)) & 0xFF, g = (y * 255 / height) & 0xFF, b = (r + g) >> 1;
+                row[x] = gray ? 0xFF000000 | r * 0x010101 : 0xFF000000 | r << 16 | g << 8 | b;
+            }
+            rows.write(y, row);
+        }
+        return img;
+    }
+
+    /** Per-pixel getRGB/setRGB loops, kept as the benchmark baseline. */
+    private static BufferedImage perPixelConvert(BufferedImage img) {
+        BufferedImage bwImage = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                int gray = Filters.luma(img.getRGB(x, y));
+                bwImage.setRGB(x, y, (gray << 16) | (gray << 8) | gray);
             }
         }
         return bwImage;
     }
 
+    private static boolean perPixelIsGray(BufferedImage img) {
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                int rgb = img.getRGB(x, y);
+                int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+                if (!(r == g && g == b)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     public static void main(String[] args) {
+        // java ImageBlackWhiteConverter batch <inputDir> <outputDir> [--mode gray|otsu|threshold|floyd|ordered]
+        //      [--threshold 0-255] [--no-skip-gray] [--format png|jpg|bmp] [--decoders n] [--converters n] [--encoders n] [--queue n]
+        if (args.length > 0 && args[0].equals("batch")) {
+            runBatch(args);
+            return;
+        }
+        // java ImageBlackWhiteConverter stream <input> <output.png|jpg> [stripRows]  converts strip by strip
+        if (args.length > 0 && args[0].equals("stream")) {
+            if (args.length < 3) {
+                System.err.println("Usage: java ImageBlackWhiteConverter stream <input> <output.png|jpg> [stripRows]");
+                System.exit(2);
+            }
+            try {
+                StripConverter.convert(new File(args[1]), new File(args[2]), args.length > 3 ? Integer.parseInt(args[3]) : 0);
+            } catch (IOException ex) {
+                System.err.println("Error: " + ex.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        // java ImageBlackWhiteConverter bench [width height]  runs headless timings instead of the UI
+        if (args.length > 0 && args[0].equals("bench")) {
+            runBenchmark(args.length > 2 ? Integer.parseInt(args[1]) : 4000, args.length > 2 ? Integer.parseInt(args[2]) : 3000);
+            return;
+        }
         SwingUtilities.invokeLater(ImageBlackWhiteConverter::new);
     }
    
@@ -5,9 +5,13 @@ import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
@@ -116,7 +120,7 @@ class Appointment implements Serializable {
     private static int ID_COUNTER = 1;
     private final int id;
     private final Patient patient;
-    private final Doctor doctor;
+    private Doctor doctor;
     private LocalDateTime dateTime;
     private String reason;
     private Status status;
@@ -140,12 +144,203 @@ class Appointment implements Serializable {
     public Status getStatus() { return status; }
     public void cancel() { this.status = Status.CANCELLED; }
     public void complete() { this.status = Status.COMPLETED; }
+    void reassignTo(Doctor d) { this.doctor = d; }
 
     @Override public String toString() {
         return String.format("Appt#%d | %s with %s at %s | %s", id, patient.getUsername(), doctor.getName(), dateTime.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")), status);
     }
 }
 
+// ------------------------
+// BATCH REQUESTS / RESULTS
+// ------------------------
+
+class BookingRequest {
+    private final Patient patient;
+    private final Doctor doctor;
+    private final LocalDateTime dateTime;
+    private final String reason;
+
+    public BookingRequest(Patient patient, Doctor doctor, LocalDateTime dateTime, String reason) {
+        this.patient = patient;
+        this.doctor = doctor;
+        this.dateTime = dateTime;
+        this.reason = reason;
+    }
+
+    public Patient getPatient() { return patient; }
+    public Doctor getDoctor() { return doctor; }
+    public LocalDateTime getDateTime() { return dateTime; }
+    public String getReason() { return reason; }
+}
+
+/** Per-item outcome of a batch operation; items keep the order of the request. */
+class BatchResult {
+    static class Item {
+        private final int index;
+        private final Appointment appointment;
+        private final boolean success;
+        private final boolean skipped;
+        private final String message;
+
+        Item(int index, Appointment appointment, boolean success, String message) {
+            this(index, appointment, success, false, message);
+        }
+
+        private Item(int index, Appointment appointment, boolean success, boolean skipped, String message) {
+            this.index = index;
+            this.appointment = appointment;
+            this.success = success;
+            this.skipped = skipped;
+            this.message = message;
+        }
+
+        /** Nothing to do for this item; neither a success nor a failure. */
+        static Item skipped(int index, Appointment appointment, String message) { return new Item(index, appointment, false, true, message); }
+
+        public int getIndex() { return index; }
+        public Appointment getAppointment() { return appointment; }
+        public boolean isSuccess() { return success; }
+        public boolean isSkipped() { return skipped; }
+        public String getMessage() { return message; }
+
+        @Override public String toString() {
+            return String.format("#%d %s%s", index, success ? "OK" : skipped ? "SKIPPED" : "FAILED", message == null ? "" : " - " + message);
+        }
+    }
+
+    private final List<Item> items = new ArrayList<>();
+
+    void add(Item item) { items.add(item); }
+
+    public List<Item> getItems() { return Collections.unmodifiableList(items); }
+    public int successCount() { int n = 0; for (Item i : items) if (i.isSuccess()) n++; return n; }
+    public int skippedCount() { int n = 0; for (Item i : items) if (i.isSkipped()) n++; return n; }
+    public int failureCount() { return items.size() - successCount() - skippedCount(); }
+    public List<Appointment> succeeded() {
+        List<Appointment> out = new ArrayList<>();
+        for (Item i : items) if (i.isSuccess()) out.add(i.getAppointment());
+        return out;
+    }
+
+    @Override public String toString() {
+        int skipped = skippedCount();
+        return skipped == 0 ? String.format("%d succeeded, %d failed", successCount(), failureCount())
+                : String.format("%d succeeded, %d skipped, %d failed", successCount(), skipped, failureCount());
+    }
+}
+
+// ------------------------
+// CHANGE EVENTS
+// ------------------------
+
+class HospitalEvent {
+    enum Type { APPOINTMENT_BOOKED, APPOINTMENT_CANCELLED, APPOINTMENT_COMPLETED, APPOINTMENT_REASSIGNED, DOCTOR_ADDED, DOCTOR_REMOVED }
+    /** Why an appointment was cancelled: one cancellation frees its slot, an unavailable doctor takes it away. */
+    enum CancelCause { REQUESTED, DOCTOR_UNAVAILABLE }
+
+    private final Type type;
+    private final Appointment appointment;
+    private final Doctor doctor;
+    private final Doctor previousDoctor;
+    private final CancelCause cancelCause;
+
+    private HospitalEvent(Type type, Appointment appointment, Doctor doctor, Doctor previousDoctor, CancelCause cancelCause) {
+        this.type = type;
+        this.appointment = appointment;
+        this.doctor = doctor;
+        this.previousDoctor = previousDoctor;
+        this.cancelCause = cancelCause;
+    }
+
+    static HospitalEvent appointment(Type type, Appointment a, Doctor previousDoctor) { return new HospitalEvent(type, a, a.getDoctor(), previousDoctor, null); }
+    static HospitalEvent cancelled(Appointment a, CancelCause cause) { return new HospitalEvent(Type.APPOINTMENT_CANCELLED, a, a.getDoctor(), null, cause); }
+    static HospitalEvent doctor(Type type, Doctor d) { return new HospitalEvent(type, null, d, null, null); }
+
+    public Type getType() { return type; }
+    public Appointment getAppointment() { return appointment; }
+    public Doctor getDoctor() { return doctor; }
+    /** For APPOINTMENT_REASSIGNED, the doctor the appointment was taken from; otherwise null. */
+    public Doctor getPreviousDoctor() { return previousDoctor; }
+    /** For APPOINTMENT_CANCELLED, why; otherwise null. */
+    public CancelCause getCancelCause() { return cancelCause; }
+    /** True if a cancellation left the doctor's slot open for someone else. */
+    public boolean freesSlot() { return cancelCause == CancelCause.REQUESTED; }
+    public boolean isDoctorEvent() { return appointment == null; }
+
+    public boolean involvesDoctor(Doctor d) {
+        return (doctor != null && doctor.getDocId() == d.getDocId()) || (previousDoctor != null && previousDoctor.getDocId() == d.getDocId());
+    }
+    public boolean involvesPatient(Patient p) { return appointment != null && appointment.getPatient().getId() == p.getId(); }
+
+    static java.util.function.Predicate<HospitalEvent> forDoctor(Doctor d) { return e -> e.involvesDoctor(d); }
+    static java.util.function.Predicate<HospitalEvent> forPatient(Patient p) { return e -> e.involvesPatient(p); }
+
+    @Override public String toString() { return type + " " + (appointment != null ? "Appt#" + appointment.getId() : doctor.getName()); }
+}
+
+interface HospitalEventListener { void onEvents(List<HospitalEvent> events); }
+
+/** Publishes change events to filtered subscribers, on the thread that made the change. */
+class HospitalEventFeed {
+    class Subscription {
+        private final java.util.function.Predicate<HospitalEvent> filter;
+        private final HospitalEventListener listener;
+
+        private Subscription(java.util.function.Predicate<HospitalEvent> filter, HospitalEventListener listener) {
+            this.filter = filter;
+            this.listener = listener;
+        }
+
+        public void cancel() { subscriptions.remove(this); }
+    }
+
+    private final List<Subscription> subscriptions = new java.util.concurrent.CopyOnWriteArrayList<>();
+
+    public Subscription subscribe(HospitalEventListener listener) { return subscribe(e -> true, listener); }
+
+    public Subscription subscribe(java.util.function.Predicate<HospitalEvent> filter, HospitalEventListener listener) {
+        Subscription s = new Subscription(filter, listener);
+        subscriptions.add(s);
+        return s;
+    }
+
+    void publish(HospitalEvent event) { publish(Collections.singletonList(event)); }
+
+    void publish(List<HospitalEvent> events) {
+        if (events.isEmpty()) return;
+        for (Subscription s : subscriptions) {
+            List<HospitalEvent> matched = new ArrayList<>();
+            for (HospitalEvent e : events) if (s.filter.test(e)) matched.add(e);
+            if (!matched.isEmpty()) s.listener.onEvents(matched);
+        }
+    }
+}
+
+/**
+ * Forwards events to a listener on the EDT. Events arriving while a delivery is still queued are
+ * appended to it, so a burst of changes costs one EDT round-trip and one repaint.
+ */
+class SwingEventCoalescer implements HospitalEventListener {
+    private final HospitalEventListener target;
+    private final java.util.concurrent.ConcurrentLinkedQueue<HospitalEvent> pending = new java.util.concurrent.ConcurrentLinkedQueue<>();
+    private final java.util.concurrent.atomic.AtomicBoolean scheduled = new java.util.concurrent.atomic.AtomicBoolean();
+
+    SwingEventCoalescer(HospitalEventListener target) { this.target = target; }
+
+    @Override public void onEvents(List<HospitalEvent> events) {
+        pending.addAll(events);
+        if (scheduled.compareAndSet(false, true)) SwingUtilities.invokeLater(this::drain);
+    }
+
+    private void drain() {
+        scheduled.set(false);
+        List<HospitalEvent> batch = new ArrayList<>();
+        for (HospitalEvent e; (e = pending.poll()) != null; ) batch.add(e);
+        if (!batch.isEmpty()) target.onEvents(batch);
+    }
+}
+
 // ------------------------
 // HOSPITAL SYSTEM (Serializable)
 // ------------------------
@@ -155,9 +350,32 @@ class HospitalSystem implements Serializable {
     private List<User> users = new ArrayList<>();
     private List<Doctor> doctors = new ArrayList<>();
     private List<Appointment> appointments = new ArrayList<>();
+    private WaitlistEngine waitlist = new WaitlistEngine();
+
+    // Invoked once after every batch that changed something; not persisted. The app saves the whole
+    // system there, so batches (and any unsaved changes before them) reach disk at once, while
+    // single-item changes still wait for the save offered on exit.
+    private transient Runnable flushListener;
 
     public HospitalSystem() { /* empty */ }
 
+    // Change-event feed; recreated after deserialization, subscribers are not persisted.
+    private transient HospitalEventFeed feed;
+
+    public void setFlushListener(Runnable listener) { this.flushListener = listener; }
+    private void flush() { if (flushListener != null) flushListener.run(); }
+
+    public synchronized HospitalEventFeed events() {
+        if (feed == null) feed = new HospitalEventFeed();
+        return feed;
+    }
+
+    /** Patients waiting for freed slots; saved with the rest of the system (absent from older save files). */
+    public synchronized WaitlistEngine waitlist() {
+        if (waitlist == null) waitlist = new WaitlistEngine();
+        return waitlist;
+    }
+
     public void seedSampleData() {
         if (!doctors.isEmpty() || !users.isEmpty()) return;
         addDoctor(new Doctor("emilysmith","docpass","Emily","Smith","emily.smith@gmail.com","Cardiology"));
@@ -174,20 +392,57 @@ class HospitalSystem implements Serializable {
     }
     public List<User> getUsers() { return Collections.unmodifiableList(users); }
 
-    public synchronized void addDoctor(Doctor d) { doctors.add(d); users.add(d); }
-    public boolean removeDoctorByDocId(int id) { return doctors.removeIf(d -> d.getDocId() == id); }
+    public void addDoctor(Doctor d) {
+        synchronized (this) { doctors.add(d); users.add(d); }
+        events().publish(HospitalEvent.doctor(HospitalEvent.Type.DOCTOR_ADDED, d));
+    }
+    public boolean removeDoctorByDocId(int id) {
+        List<HospitalEvent> removed = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Doctor> it = doctors.iterator(); it.hasNext(); ) {
+                Doctor d = it.next();
+                if (d.getDocId() == id) { it.remove(); removed.add(HospitalEvent.doctor(HospitalEvent.Type.DOCTOR_REMOVED, d)); }
+            }
+        }
+        events().publish(removed);
+        return !removed.isEmpty();
+    }
     public List<Doctor> getDoctors() { return Collections.unmodifiableList(doctors); }
 
-    public synchronized Appointment bookAppointment(Patient p, Doctor d, LocalDateTime at, String reason) throws Exception {
-        boolean conflict = appointments.stream()
-                .filter(a -> a.getStatus() == Appointment.Status.SCHEDULED)
-                .anyMatch(a -> a.getDoctor().getDocId() == d.getDocId() && a.getDateTime().equals(at));
-        if (conflict) throw new Exception("Doctor already has an appointment at that time.");
-        Appointment appt = new Appointment(p, d, at, reason);
-        appointments.add(appt);
+    public Appointment bookAppointment(Patient p, Doctor d, LocalDateTime at, String reason) throws Exception {
+        Appointment appt;
+        synchronized (this) {
+            boolean conflict = appointments.stream()
+                    .filter(a -> a.getStatus() == Appointment.Status.SCHEDULED)
+                    .anyMatch(a -> a.getDoctor().getDocId() == d.getDocId() && a.getDateTime().equals(at));
+            if (conflict) throw new Exception("Doctor already has an appointment at that time.");
+            appt = new Appointment(p, d, at, reason);
+            appointments.add(appt);
+        }
+        events().publish(HospitalEvent.appointment(HospitalEvent.Type.APPOINTMENT_BOOKED, appt, null));
         return appt;
     }
 
+    /** Cancel a scheduled appointment; returns false if it was not scheduled. */
+    public boolean cancelAppointment(Appointment a) {
+        synchronized (this) {
+            if (a.getStatus() != Appointment.Status.SCHEDULED) return false;
+            a.cancel();
+        }
+        events().publish(HospitalEvent.cancelled(a, HospitalEvent.CancelCause.REQUESTED));
+        return true;
+    }
+
+    /** Mark a scheduled appointment completed; returns false if it was not scheduled. */
+    public boolean completeAppointment(Appointment a) {
+        synchronized (this) {
+            if (a.getStatus() != Appointment.Status.SCHEDULED) return false;
+            a.complete();
+        }
+        events().publish(HospitalEvent.appointment(HospitalEvent.Type.APPOINTMENT_COMPLETED, a, null));
+        return true;
+    }
+
     public List<Appointment> getAppointments() { return Collections.unmodifiableList(appointments); }
     public List<Appointment> getAppointmentsForPatient(Patient p) {
         List<Appointment> out = new ArrayList<>();
@@ -201,6 +456,100 @@ class HospitalSystem implements Serializable {
     }
     public Optional<Appointment> findAppointmentById(int id) { return appointments.stream().filter(a -> a.getId() == id).findFirst(); }
 
+    // ------------------------
+    // Batch operations: each holds the system lock once and flushes once
+    // ------------------------
+
+    private static String slotKey(Doctor d, LocalDateTime at) { return d.getDocId() + "@" + at; }
+
+    private Set<String> scheduledSlots() {
+        Set<String> taken = new HashSet<>();
+        for (Appointment a : appointments) if (a.getStatus() == Appointment.Status.SCHEDULED) taken.add(slotKey(a.getDoctor(), a.getDateTime()));
+        return taken;
+    }
+
+    /**
+     * Book several appointments at once. With allOrNothing set, a single conflict rejects the
+     * whole batch and nothing is booked; otherwise conflicting items fail individually.
+     */
+    public BatchResult bookMany(List<BookingRequest> requests, boolean allOrNothing) {
+        BatchResult result = new BatchResult();
+        List<HospitalEvent> changes = new ArrayList<>();
+        synchronized (this) {
+            Set<String> taken = scheduledSlots();
+            String[] errors = new String[requests.size()];
+            boolean anyFailed = false;
+            for (int i = 0; i < requests.size(); i++) {
+                BookingRequest r = requests.get(i);
+                if (r.getPatient() == null || r.getDoctor() == null || r.getDateTime() == null) errors[i] = "Incomplete request.";
+                else if (!taken.add(slotKey(r.getDoctor(), r.getDateTime()))) errors[i] = "Doctor already has an appointment at that time.";
+                anyFailed |= errors[i] != null;
+            }
+
+            for (int i = 0; i < requests.size(); i++) {
+                BookingRequest r = requests.get(i);
+                if (errors[i] != null) { result.add(new BatchResult.Item(i, null, false, errors[i])); continue; }
+                if (allOrNothing && anyFailed) { result.add(new BatchResult.Item(i, null, false, "Batch rejected.")); continue; }
+                Appointment appt = new Appointment(r.getPatient(), r.getDoctor(), r.getDateTime(), r.getReason());
+                appointments.add(appt);
+                result.add(new BatchResult.Item(i, appt, true, null));
+                changes.add(HospitalEvent.appointment(HospitalEvent.Type.APPOINTMENT_BOOKED, appt, null));
+            }
+            if (!changes.isEmpty()) flush();
+        }
+        events().publish(changes);
+        return result;
+    }
+
+    /**
+     * Cancel every scheduled appointment of the doctor with from <= time < to, because the doctor
+     * is unavailable: the events carry CancelCause.DOCTOR_UNAVAILABLE, so the slots are not refilled.
+     */
+    public BatchResult cancelByDoctorAndDateRange(Doctor d, LocalDateTime from, LocalDateTime to) {
+        BatchResult result = new BatchResult();
+        List<HospitalEvent> changes = new ArrayList<>();
+        synchronized (this) {
+            int i = 0;
+            for (Appointment a : appointments) {
+                if (a.getDoctor().getDocId() != d.getDocId() || a.getStatus() != Appointment.Status.SCHEDULED) continue;
+                if (a.getDateTime().isBefore(from) || !a.getDateTime().isBefore(to)) continue;
+                a.cancel();
+                result.add(new BatchResult.Item(i++, a, true, null));
+                changes.add(HospitalEvent.cancelled(a, HospitalEvent.CancelCause.DOCTOR_UNAVAILABLE));
+            }
+            if (!changes.isEmpty()) flush();
+        }
+        events().publish(changes);
+        return result;
+    }
+
+    /** Move the given appointments to another doctor; items that would double-book the target fail. */
+    public BatchResult reassignToDoctor(List<Integer> appointmentIds, Doctor target) {
+        BatchResult result = new BatchResult();
+        List<HospitalEvent> changes = new ArrayList<>();
+        synchronized (this) {
+            Map<Integer, Appointment> byId = new HashMap<>();
+            for (Appointment a : appointments) byId.put(a.getId(), a);
+            Set<String> taken = scheduledSlots();
+
+            for (int i = 0; i < appointmentIds.size(); i++) {
+                Appointment a = byId.get(appointmentIds.get(i));
+                if (a == null) { result.add(new BatchResult.Item(i, null, false, "Appointment #" + appointmentIds.get(i) + " not found.")); continue; }
+                if (a.getStatus() != Appointment.Status.SCHEDULED) { result.add(new BatchResult.Item(i, a, false, "Appointment is " + a.getStatus() + ".")); continue; }
+                if (a.getDoctor().getDocId() == target.getDocId()) { result.add(BatchResult.Item.skipped(i, a, "Already assigned.")); continue; }
+                if (!taken.add(slotKey(target, a.getDateTime()))) { result.add(new BatchResult.Item(i, a, false, target.getName() + " is busy at that time.")); continue; }
+                Doctor previous = a.getDoctor();
+                taken.remove(slotKey(previous, a.getDateTime()));
+                a.reassignTo(target);
+                result.add(new BatchResult.Item(i, a, true, null));
+                changes.add(HospitalEvent.appointment(HospitalEvent.Type.APPOINTMENT_REASSIGNED, a, previous));
+            }
+            if (!changes.isEmpty()) flush();
+        }
+        events().publish(changes);
+        return result;
+    }
+
     // Persistence helpers
     public static void saveToFile(HospitalSystem sys, File f) throws IOException {
         try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f))) {
@@ -224,9 +573,493 @@ class NotificationCenter {
         String ts = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
         messages.add(ts + " - " + msg);
     }
+    public synchronized void notifyBatch(Collection<String> msgs) {
+        String ts = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        for (String m : msgs) messages.add(ts + " - " + m);
+    }
     public synchronized List<String> all() { return new ArrayList<>(messages); }
 }
 
+// ------------------------
+// Waitlist (auto-fill cancelled slots)
+// ------------------------
+
+class WaitlistEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static long SEQ = 0;
+    private final long seq;
+    private final Patient patient;
+    private final Doctor doctor;          // null = any doctor with the specialization
+    private final String specialization;
+    private final LocalDateTime from;     // inclusive, rounded down to the hour
+    private final LocalDateTime to;       // exclusive, rounded up to the hour
+    private final int priority;           // higher first; ties are first come, first served
+    private boolean active = true;
+
+    private WaitlistEntry(Patient patient, Doctor doctor, String specialization, LocalDateTime from, LocalDateTime to, int priority) {
+        synchronized (WaitlistEntry.class) { this.seq = SEQ++; }
+        this.patient = patient;
+        this.doctor = doctor;
+        this.specialization = specialization;
+        this.from = from.truncatedTo(java.time.temporal.ChronoUnit.HOURS);
+        LocalDateTime end = to.truncatedTo(java.time.temporal.ChronoUnit.HOURS);
+        this.to = end.isBefore(to) ? end.plusHours(1) : end;
+        this.priority = priority;
+    }
+
+    static WaitlistEntry forDoctor(Patient p, Doctor d, LocalDateTime from, LocalDateTime to, int priority) {
+        return new WaitlistEntry(p, d, d.getSpecialization(), from, to, priority);
+    }
+    static WaitlistEntry forSpecialization(Patient p, String specialization, LocalDateTime from, LocalDateTime to, int priority) {
+        return new WaitlistEntry(p, null, specialization, from, to, priority);
+    }
+
+    /** An active copy with the same place in line, for putting a claimed entry back. */
+    private WaitlistEntry(WaitlistEntry e) {
+        this.seq = e.seq;
+        this.patient = e.patient;
+        this.doctor = e.doctor;
+        this.specialization = e.specialization;
+        this.from = e.from;
+        this.to = e.to;
+        this.priority = e.priority;
+    }
+    WaitlistEntry requeued() { return new WaitlistEntry(this); }
+
+    public Patient getPatient() { return patient; }
+    public Doctor getDoctor() { return doctor; }
+    public String getSpecialization() { return specialization; }
+    public LocalDateTime getFrom() { return from; }
+    public LocalDateTime getTo() { return to; }
+    public int getPriority() { return priority; }
+    public boolean isActive() { return active; }
+    void deactivate() { active = false; }
+
+    /** After loading saved entries: later entries must still sort after them on ties. */
+    static void restored(WaitlistEntry e) {
+        synchronized (WaitlistEntry.class) { if (SEQ <= e.seq) SEQ = e.seq + 1; }
+    }
+
+    static final Comparator<WaitlistEntry> BEST_FIRST = (a, b) -> a.priority != b.priority ? Integer.compare(b.priority, a.priority) : Long.compare(a.seq, b.seq);
+
+    @Override public String toString() {
+        return String.format("%s waiting for %s, %s to %s", patient.getUsername(), doctor != null ? doctor.getName() : specialization,
+                from.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")), to.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
+    }
+}
+
+/**
+ * Matches freed slots to waiting patients. An entry's window of hours is split into aligned blocks of
+ * 1, 2, 4, ... hours (at most two per size, so about 20 for a month), and the entry goes into one
+ * priority queue per block, keyed by doctor or by specialization. A freed slot lies in exactly one
+ * block of each size, so matching looks at one queue head per size: O(log window * log n).
+ * Removed entries are dropped lazily when they surface at a queue head. Only the active entries are
+ * serialized; the indexes are rebuilt on load.
+ */
+class WaitlistEngine implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int MAX_WINDOW_HOURS = 24 * 31;
+    private static final int MAX_LEVEL = 10; // largest block: 1024 hours, more than MAX_WINDOW_HOURS
+
+    // scope ("doctor:<id>" or "spec:<name>") -> block key -> entries whose window covers the block
+    private transient Map<String, Map<Long, PriorityQueue<WaitlistEntry>>> blocks;
+    private transient PriorityQueue<WaitlistEntry> byEnd; // every entry not yet expired, earliest window end first
+    private transient int size;
+
+    WaitlistEngine() { init(); }
+
+    private void init() {
+        blocks = new HashMap<>();
+        byEnd = new PriorityQueue<>(Comparator.comparing(WaitlistEntry::getTo));
+        size = 0;
+    }
+
+    private static long hourIndex(LocalDateTime t) { return t.toEpochSecond(java.time.ZoneOffset.UTC) / 3600; }
+    private static long blockKey(int level, long hour) { return ((long) level << 56) | (hour >> level); }
+    private static String doctorScope(Doctor d) { return "doctor:" + d.getDocId(); }
+    private static String specializationScope(String s) { return "spec:" + s.toLowerCase(); }
+
+    public synchronized int size() { return size; }
+
+    public synchronized void join(WaitlistEntry e) {
+        long first = hourIndex(e.getFrom()), last = hourIndex(e.getTo());
+        if (last <= first) throw new IllegalArgumentException("Empty waitlist window.");
+        if (last - first > MAX_WINDOW_HOURS) throw new IllegalArgumentException("Waitlist window is limited to " + (MAX_WINDOW_HOURS / 24) + " days.");
+        index(e);
+    }
+
+    private void index(WaitlistEntry e) {
+        long first = hourIndex(e.getFrom()), last = hourIndex(e.getTo());
+        Map<Long, PriorityQueue<WaitlistEntry>> scope = blocks.computeIfAbsent(
+                e.getDoctor() != null ? doctorScope(e.getDoctor()) : specializationScope(e.getSpecialization()), k -> new HashMap<>());
+        for (long h = first; h < last; ) {
+            int level = Math.min(MAX_LEVEL, Long.numberOfTrailingZeros(h));
+            while ((1L << level) > last - h) level--;
+            scope.computeIfAbsent(blockKey(level, h), k -> new PriorityQueue<>(WaitlistEntry.BEST_FIRST)).add(e);
+            h += 1L << level;
+        }
+        byEnd.add(e);
+        size++;
+    }
+
+    public synchronized void remove(WaitlistEntry e) {
+        if (!e.isActive()) return;
+        deactivate(e);
+    }
+
+    private void deactivate(WaitlistEntry e) {
+        e.deactivate();
+        size--;
+    }
+
+    /** Best waiting entry for a slot freed at the doctor, or empty; the entry stays on the list. */
+    public synchronized Optional<WaitlistEntry> findBest(Doctor d, LocalDateTime slot) {
+        return findBest(d, slot, e -> true);
+    }
+
+    /** As findBest, passing over (but keeping) entries that are not eligible for this slot. */
+    public synchronized Optional<WaitlistEntry> findBest(Doctor d, LocalDateTime slot, java.util.function.Predicate<WaitlistEntry> eligible) {
+        long h = hourIndex(slot);
+        WaitlistEntry best = null;
+        for (String key : new String[] { doctorScope(d), specializationScope(d.getSpecialization()) }) {
+            Map<Long, PriorityQueue<WaitlistEntry>> scope = blocks.get(key);
+            if (scope == null) continue;
+            for (int level = 0; level <= MAX_LEVEL; level++) {
+                WaitlistEntry e = head(scope, blockKey(level, h), eligible);
+                if (e != null && (best == null || WaitlistEntry.BEST_FIRST.compare(e, best) < 0)) best = e;
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    /** findBest + remove in one step. */
+    public synchronized Optional<WaitlistEntry> claim(Doctor d, LocalDateTime slot) {
+        return claim(d, slot, e -> true);
+    }
+
+    /** findBest(eligible) + remove in one step, so concurrent cancellations never get the same entry. */
+    public synchronized Optional<WaitlistEntry> claim(Doctor d, LocalDateTime slot, java.util.function.Predicate<WaitlistEntry> eligible) {
+        Optional<WaitlistEntry> best = findBest(d, slot, eligible);
+        best.ifPresent(this::deactivate);
+        return best;
+    }
+
+    /** Put a claimed entry back in its old place in line, e.g. when booking the slot failed. */
+    public synchronized void restore(WaitlistEntry e) {
+        if (!e.isActive()) index(e.requeued());
+    }
+
+    // First active, eligible entry of a queue; inactive ones are dropped, ineligible ones pushed back.
+    private static WaitlistEntry head(Map<Long, PriorityQueue<WaitlistEntry>> index, long key, java.util.function.Predicate<WaitlistEntry> eligible) {
+        PriorityQueue<WaitlistEntry> q = index.get(key);
+        if (q == null) return null;
+        List<WaitlistEntry> passedOver = null;
+        WaitlistEntry found = null;
+        while (!q.isEmpty()) {
+            WaitlistEntry e = q.peek();
+            if (!e.isActive()) { q.poll(); continue; }
+            if (eligible.test(e)) { found = e; break; }
+            if (passedOver == null) passedOver = new ArrayList<>();
+            passedOver.add(q.poll());
+        }
+        if (passedOver != null) q.addAll(passedOver);
+        if (q.isEmpty()) index.remove(key);
+        return found;
+    }
+
+    /** Remove entries whose window is over and drop the blocks of hours that have passed. */
+    public synchronized void expireBefore(LocalDateTime now) {
+        while (!byEnd.isEmpty() && !byEnd.peek().getTo().isAfter(now)) {
+            WaitlistEntry e = byEnd.poll();
+            if (e.isActive()) deactivate(e);
+        }
+        long h = hourIndex(now);
+        for (Iterator<Map<Long, PriorityQueue<WaitlistEntry>>> it = blocks.values().iterator(); it.hasNext(); ) {
+            Map<Long, PriorityQueue<WaitlistEntry>> scope = it.next();
+            scope.keySet().removeIf(k -> { int level = (int) (k >>> 56); return (((k & ((1L << 56) - 1)) + 1) << level) <= h; });
+            if (scope.isEmpty()) it.remove();
+        }
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        List<WaitlistEntry> active = new ArrayList<>();
+        for (WaitlistEntry e : byEnd) if (e.isActive()) active.add(e);
+        out.writeObject(active);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+        for (WaitlistEntry e : (List<WaitlistEntry>) in.readObject()) {
+            WaitlistEntry.restored(e);
+            index(e);
+        }
+    }
+
+    /** Headless throughput check: java mini.HospitalAppointmentAppEnhanced --bench-waitlist [entries] [cancellations] */
+    static void runBenchmark(int entries, int cancellations) {
+        String[] specs = { "Cardiology", "Orthopedics", "Pediatrics", "Dermatology", "Neurology" };
+        List<Doctor> doctors = new ArrayList<>();
+        for (int i = 0; i < 50; i++) doctors.add(new Doctor("doc" + i, "pw", "Doc", "No" + i, "doc" + i + "@example.com", specs[i % specs.length]));
+        List<Patient> patients = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) patients.add(new Patient("pat" + i, "pw", "Pat", "No" + i, "pat" + i + "@example.com"));
+
+        Random rnd = new Random(7);
+        LocalDateTime start = LocalDate.now().plusDays(1).atStartOfDay();
+        WaitlistEngine engine = new WaitlistEngine();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < entries; i++) {
+            LocalDateTime from = start.plusHours(rnd.nextInt(24 * 30));
+            LocalDateTime to = from.plusHours(1 + rnd.nextInt(48));
+            Patient p = patients.get(rnd.nextInt(patients.size()));
+            if (rnd.nextBoolean()) engine.join(WaitlistEntry.forDoctor(p, doctors.get(rnd.nextInt(doctors.size())), from, to, rnd.nextInt(3)));
+            else engine.join(WaitlistEntry.forSpecialization(p, specs[rnd.nextInt(specs.length)], from, to, rnd.nextInt(3)));
+        }
+        long t1 = System.nanoTime();
+        int filled = 0;
+        for (int i = 0; i < cancellations; i++) {
+            Doctor d = doctors.get(rnd.nextInt(doctors.size()));
+            if (engine.claim(d, start.plusHours(rnd.nextInt(24 * 30))).isPresent()) filled++;
+        }
+        long t2 = System.nanoTime();
+        System.out.printf("join:   %,d entries in %.1f ms (%,.0f/s)%n", entries, (t1 - t0) / 1e6, entries / ((t1 - t0) / 1e9));
+        System.out.printf("match:  %,d cancellations in %.1f ms (%,.0f/s), %,d slots filled, %,d still waiting%n",
+                cancellations, (t2 - t1) / 1e6, cancellations / ((t2 - t1) / 1e9), filled, engine.size());
+    }
+}
+
+// ------------------------
+// Reminder scheduling (hierarchical timing wheel)
+// ------------------------
+
+/**
+ * Hierarchical timing wheel. Each level has 64 buckets; a bucket on level L covers 64^L ticks and is
+ * cascaded into the lower levels when the wheel reaches it. Scheduling and cancelling are O(1)
+ * (intrusive doubly linked buckets); advancing costs O(elapsed ticks + expired timers).
+ * Not thread-safe: callers synchronize.
+ */
+class TimingWheel<T> {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 5; // 64^5 ticks: ~2000 years at one tick per minute
+
+    static final class Timeout<T> {
+        private final long deadlineTick;
+        private final T payload;
+        private Timeout<T> prev, next;
+        private Bucket<T> bucket;
+
+        private Timeout(long deadlineTick, T payload) { this.deadlineTick = deadlineTick; this.payload = payload; }
+
+        public T getPayload() { return payload; }
+        public boolean isPending() { return bucket != null; }
+    }
+
+    private static final class Bucket<T> {
+        private Timeout<T> head;
+
+        void add(Timeout<T> t) {
+            t.bucket = this;
+            t.prev = null;
+            t.next = head;
+            if (head != null) head.prev = t;
+            head = t;
+        }
+
+        void remove(Timeout<T> t) {
+            if (t.prev != null) t.prev.next = t.next; else head = t.next;
+            if (t.next != null) t.next.prev = t.prev;
+            t.prev = t.next = null;
+            t.bucket = null;
+        }
+
+        /** Detach and return the whole chain; nodes keep their next links. */
+        Timeout<T> drain() {
+            Timeout<T> h = head;
+            head = null;
+            return h;
+        }
+    }
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final Bucket<T>[][] wheels;
+    private final Bucket<T> overdue = new Bucket<>();
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("tickMillis must be positive");
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        this.wheels = new Bucket[LEVELS][WHEEL_SIZE];
+        for (Bucket<T>[] level : wheels) for (int i = 0; i < WHEEL_SIZE; i++) level[i] = new Bucket<>();
+    }
+
+    public int size() { return size; }
+
+    /** Schedule payload to expire at the first tick at or after deadlineMillis. */
+    public Timeout<T> schedule(long deadlineMillis, T payload) {
+        long delta = deadlineMillis - startMillis;
+        long tick = delta <= 0 ? 0 : (delta + tickMillis - 1) / tickMillis;
+        Timeout<T> t = new Timeout<>(tick, payload);
+        place(t);
+        size++;
+        return t;
+    }
+
+    public boolean cancel(Timeout<T> t) {
+        if (t.bucket == null) return false;
+        t.bucket.remove(t);
+        size--;
+        return true;
+    }
+
+    /** Advance the wheel to nowMillis, appending the payloads of every expired timer to out. */
+    public int advanceTo(long nowMillis, List<T> out) {
+        int fired = expire(overdue.drain(), out);
+        long target = (nowMillis - startMillis) / tickMillis;
+        while (currentTick < target) {
+            if (size == 0) { currentTick = target; break; }
+            long tick = ++currentTick;
+            int levels = 0;
+            while (levels + 1 < LEVELS && ((tick >>> (WHEEL_BITS * (levels + 1))) << (WHEEL_BITS * (levels + 1))) == tick) levels++;
+            for (int level = levels; level >= 1; level--) {
+                Timeout<T> t = wheels[level][(int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK].drain();
+                while (t != null) {
+                    Timeout<T> next = t.next;
+                    t.bucket = null;
+                    place(t);
+                    t = next;
+                }
+            }
+            fired += expire(overdue.drain(), out); // cascaded timers due exactly at this tick
+            fired += expire(wheels[0][(int) tick & WHEEL_MASK].drain(), out);
+        }
+        return fired;
+    }
+
+    private int expire(Timeout<T> t, List<T> out) {
+        int n = 0;
+        while (t != null) {
+            Timeout<T> next = t.next;
+            t.bucket = null;
+            t.prev = t.next = null;
+            out.add(t.payload);
+            size--;
+            n++;
+            t = next;
+        }
+        return n;
+    }
+
+    private void place(Timeout<T> t) {
+        long diff = t.deadlineTick - currentTick;
+        if (diff <= 0) { overdue.add(t); return; }
+        for (int level = 0; level < LEVELS; level++) {
+            if (diff < 1L << (WHEEL_BITS * (level + 1))) {
+                wheels[level][(int) (t.deadlineTick >>> (WHEEL_BITS * level)) & WHEEL_MASK].add(t);
+                return;
+            }
+        }
+        // Beyond the top level: park in the furthest top-level bucket; it is re-placed on cascade.
+        long parked = currentTick + (1L << (WHEEL_BITS * LEVELS)) - 1;
+        wheels[LEVELS - 1][(int) (parked >>> (WHEEL_BITS * (LEVELS - 1))) & WHEEL_MASK].add(t);
+    }
+}
+
+/** A clock that only moves when told to, for driving the reminder scheduler in tests and demos. */
+class ManualClock extends Clock {
+    private volatile Instant now;
+    private final ZoneId zone;
+
+    public ManualClock(Instant start, ZoneId zone) { this.now = start; this.zone = zone; }
+
+    public void advance(Duration d) { now = now.plus(d); }
+    public void set(Instant instant) { now = instant; }
+
+    @Override public ZoneId getZone() { return zone; }
+    @Override public Clock withZone(ZoneId z) { return new ManualClock(now, z); }
+    @Override public Instant instant() { return now; }
+}
+
+/** Schedules "24h before" / "1h before" reminders for appointments and fires them in batches. */
+class ReminderScheduler {
+    static final Duration[] DEFAULT_OFFSETS = { Duration.ofHours(24), Duration.ofHours(1) };
+
+    static class Reminder {
+        private final Appointment appointment;
+        private final Duration before;
+
+        Reminder(Appointment appointment, Duration before) { this.appointment = appointment; this.before = before; }
+
+        public Appointment getAppointment() { return appointment; }
+        public Duration getBefore() { return before; }
+
+        @Override public String toString() {
+            return String.format("Reminder: appointment #%d with %s at %s (in %dh)", appointment.getId(), appointment.getDoctor().getName(),
+                    appointment.getDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")), before.toHours());
+        }
+    }
+
+    private final Clock clock;
+    private final Duration[] offsets;
+    private final TimingWheel<Reminder> wheel;
+    private final Map<Integer, List<TimingWheel.Timeout<Reminder>>> byAppointment = new HashMap<>();
+    private final java.util.function.Consumer<List<Reminder>> sink;
+
+    public ReminderScheduler(Clock clock, java.util.function.Consumer<List<Reminder>> sink) {
+        this(clock, Duration.ofMinutes(1), DEFAULT_OFFSETS, sink);
+    }
+
+    public ReminderScheduler(Clock clock, Duration tick, Duration[] offsets, java.util.function.Consumer<List<Reminder>> sink) {
+        this.clock = clock;
+        this.offsets = offsets.clone();
+        this.wheel = new TimingWheel<>(tick.toMillis(), clock.millis());
+        this.sink = sink;
+    }
+
+    /** Schedule the reminders of a scheduled appointment; offsets already in the past are skipped. */
+    public synchronized void schedule(Appointment a) {
+        if (a.getStatus() != Appointment.Status.SCHEDULED) return;
+        long now = clock.millis();
+        long at = a.getDateTime().atZone(clock.getZone()).toInstant().toEpochMilli();
+        for (Duration before : offsets) {
+            long due = at - before.toMillis();
+            if (due < now) continue;
+            byAppointment.computeIfAbsent(a.getId(), k -> new ArrayList<>(offsets.length)).add(wheel.schedule(due, new Reminder(a, before)));
+        }
+    }
+
+    public synchronized void cancel(Appointment a) {
+        List<TimingWheel.Timeout<Reminder>> timers = byAppointment.remove(a.getId());
+        if (timers != null) for (TimingWheel.Timeout<Reminder> t : timers) wheel.cancel(t);
+    }
+
+    public synchronized int pending() { return wheel.size(); }
+
+    /** Fire every reminder due by now as one batch; returns the number delivered. */
+    public int poll() {
+        List<Reminder> due = new ArrayList<>();
+        synchronized (this) {
+            wheel.advanceTo(clock.millis(), due);
+            for (Reminder r : due) {
+                List<TimingWheel.Timeout<Reminder>> timers = byAppointment.get(r.getAppointment().getId());
+                if (timers == null) continue;
+                timers.removeIf(t -> !t.isPending());
+                if (timers.isEmpty()) byAppointment.remove(r.getAppointment().getId());
+            }
+        }
+        due.removeIf(r -> r.getAppointment().getStatus() != Appointment.Status.SCHEDULED);
+        if (!due.isEmpty()) sink.accept(due);
+        return due.size();
+    }
+}
+
 // ------------------------
 // GUI APPLICATION
 // ------------------------
@@ -236,6 +1069,11 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
     private HospitalSystem system;
     private final File persistenceFile = new File("hospital_system.dat");
     private final NotificationCenter notifications = new NotificationCenter();
+    private final ReminderScheduler reminders = new ReminderScheduler(Clock.systemDefaultZone(), batch -> {
+        List<String> msgs = new ArrayList<>(batch.size());
+        for (ReminderScheduler.Reminder r : batch) msgs.add(r.toString());
+        notifications.notifyBatch(msgs);
+    });
 
     private User loggedInUser = null;
     private CardLayout cardLayout = new CardLayout();
@@ -248,13 +1086,39 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
     private LoginPanel loginPanelRef;
 
     private JButton btnLogout;
+    private JButton btnWelcomeLogin;
+    private JButton btnWelcomeDoctors;
+    private JLabel lblStatus;
 
-    public HospitalAppointmentAppEnhanced() {
-        loadOrCreateSystem();
+    private final StartupTimer startup;
+
+    public HospitalAppointmentAppEnhanced() { this(new StartupTimer(false)); }
+
+    HospitalAppointmentAppEnhanced(StartupTimer startup) {
+        this.startup = startup;
         initializeUI();
+        loadSystemInBackground();
     }
 
-    private void loadOrCreateSystem() {
+    /** Deserialize (or seed) the system off the EDT; the welcome card stays responsive meanwhile. */
+    private void loadSystemInBackground() {
+        new SwingWorker<HospitalSystem, Void>() {
+            @Override protected HospitalSystem doInBackground() { return loadOrCreateSystem(persistenceFile); }
+            @Override protected void done() {
+                try {
+                    onSystemLoaded(get());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    HospitalSystem fresh = new HospitalSystem();
+                    fresh.seedSampleData();
+                    onSystemLoaded(fresh);
+                }
+            }
+        }.execute();
+    }
+
+    private static HospitalSystem loadOrCreateSystem(File persistenceFile) {
+        HospitalSystem system;
         if (persistenceFile.exists()) {
             try {
                 system = HospitalSystem.loadFromFile(persistenceFile);
@@ -267,9 +1131,67 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
             system = new HospitalSystem();
             system.seedSampleData();
         }
+        return system;
+    }
+
+    private void onSystemLoaded(HospitalSystem loaded) {
+        system = loaded;
+        system.setFlushListener(this::saveSystem); // batches save immediately; see the exit dialog
+        for (Appointment a : system.getAppointments()) reminders.schedule(a);
+        system.events().subscribe(events -> {
+            for (HospitalEvent e : events) {
+                if (e.getType() == HospitalEvent.Type.APPOINTMENT_BOOKED) reminders.schedule(e.getAppointment());
+                else if (e.getType() == HospitalEvent.Type.APPOINTMENT_CANCELLED || e.getType() == HospitalEvent.Type.APPOINTMENT_COMPLETED) reminders.cancel(e.getAppointment());
+            }
+        });
+        // only slots that are really free; a doctor-unavailable cancellation must not be rebooked with that doctor
+        system.events().subscribe(HospitalEvent::freesSlot, events -> {
+            for (HospitalEvent e : events) offerFreedSlot(e.getAppointment());
+        });
+
+        btnWelcomeLogin.setEnabled(true);
+        btnWelcomeDoctors.setEnabled(true);
+        lblStatus.setText("Made with ❤  •  Demo version (persistent to disk)");
+        startup.markInteractive();
+    }
+
+    /** Give a cancelled slot to the best waiting patient, if any. */
+    private void offerFreedSlot(Appointment cancelled) {
+        Doctor d = cancelled.getDoctor();
+        LocalDateTime at = cancelled.getDateTime();
+        if (at.isBefore(LocalDateTime.now())) return;
+        WaitlistEngine waitlist = system.waitlist();
+        Set<Integer> failed = new HashSet<>();
+        // not the patient who just gave the slot up, nobody already booked at that time, nobody who failed here
+        java.util.function.Predicate<WaitlistEntry> eligible = w -> w.getPatient().getId() != cancelled.getPatient().getId()
+                && !failed.contains(w.getPatient().getId()) && !hasScheduledAt(w.getPatient(), at);
+        for (Optional<WaitlistEntry> next; (next = waitlist.claim(d, at, eligible)).isPresent(); ) {
+            WaitlistEntry w = next.get();
+            try {
+                Appointment appt = system.bookAppointment(w.getPatient(), d, at, "From waitlist");
+                notifications.notify(String.format("Waitlist: slot %s with %s given to %s (appointment #%d)", at.format(dtFormatter), d.getName(), w.getPatient().getUsername(), appt.getId()));
+                return;
+            } catch (Exception ex) {
+                waitlist.restore(w);
+                notifications.notify(String.format("Waitlist: could not give slot %s with %s to %s: %s", at.format(dtFormatter), d.getName(), w.getPatient().getUsername(), ex.getMessage()));
+                if (isDoctorBookedAt(d, at)) return; // someone else took the slot; nobody on the list can have it
+                failed.add(w.getPatient().getId());
+            }
+        }
+    }
+
+    private boolean hasScheduledAt(Patient p, LocalDateTime at) {
+        for (Appointment a : system.getAppointmentsForPatient(p)) if (a.getStatus() == Appointment.Status.SCHEDULED && a.getDateTime().equals(at)) return true;
+        return false;
+    }
+
+    private boolean isDoctorBookedAt(Doctor d, LocalDateTime at) {
+        for (Appointment a : system.getAppointmentsForDoctor(d)) if (a.getStatus() == Appointment.Status.SCHEDULED && a.getDateTime().equals(at)) return true;
+        return false;
     }
 
     private void saveSystem() {
+        if (system == null) return;
         try {
             HospitalSystem.saveToFile(system, persistenceFile);
         } catch (IOException e) {
@@ -285,7 +1207,9 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
 
         addWindowListener(new WindowAdapter() {
             @Override public void windowClosing(WindowEvent e) {
-                int res = JOptionPane.showConfirmDialog(HospitalAppointmentAppEnhanced.this, "Save changes & exit?", "Exit", JOptionPane.YES_NO_CANCEL_OPTION);
+                int res = JOptionPane.showConfirmDialog(HospitalAppointmentAppEnhanced.this,
+                        "Save changes & exit?\n(Doctor Unavailable batches were saved when they ran, with any changes made before them.)",
+                        "Exit", JOptionPane.YES_NO_CANCEL_OPTION);
                 if (res == JOptionPane.YES_OPTION) {
                     saveSystem();
                     dispose();
@@ -313,11 +1237,9 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
         themeToggle.addActionListener(e -> toggleTheme());
         btnLogout.addActionListener(e -> doLogout());
 
+        // Role dashboards are added on first login (see showDashboard).
         mainPanel.add(welcomePanel(), "welcome");
         mainPanel.add(loginPanel(), "login");
-        mainPanel.add(patientDashboard(), "patient");
-        mainPanel.add(adminDashboard(), "admin");
-        mainPanel.add(doctorDashboard(), "doctor");
 
         getContentPane().setLayout(new BorderLayout());
         getContentPane().add(topBar, BorderLayout.NORTH);
@@ -327,18 +1249,26 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
             loggedInUser = user;
             btnLogout.setVisible(true);
             if (user instanceof Patient) {
+                if (patientPanelRef == null) mainPanel.add(patientDashboard(), "patient");
                 patientPanelRef.refreshData();
                 cardLayout.show(mainPanel, "patient");
             } else if (user instanceof Admin) {
+                if (adminPanelRef == null) mainPanel.add(adminDashboard(), "admin");
                 adminPanelRef.refreshData();
                 cardLayout.show(mainPanel, "admin");
             } else if (user instanceof Doctor) {
+                if (doctorPanelRef == null) mainPanel.add(doctorDashboard(), "doctor");
                 doctorPanelRef.refreshData();
                 cardLayout.show(mainPanel, "doctor");
             }
         });
 
         cardLayout.show(mainPanel, "welcome");
+
+        new javax.swing.Timer(30_000, e -> {
+            reminders.poll();
+            if (system != null) system.waitlist().expireBefore(LocalDateTime.now());
+        }).start();
     }
 
     private void doLogout() {
@@ -368,7 +1298,12 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
     // Welcome Panel
     // ------------------------
     private JPanel welcomePanel() {
-        JPanel panel = new JPanel(new BorderLayout());
+        JPanel panel = new JPanel(new BorderLayout()) {
+            @Override protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                startup.markFirstFrame();
+            }
+        };
         panel.setBackground(new Color(250, 250, 252));
         JLabel title = new JLabel("<html><div style='text-align:center'><b>CareConnect</b><br><small>Hospital Appointment System (Enhanced)</small></div></html>", SwingConstants.CENTER);
         title.setFont(new Font("SansSerif", Font.PLAIN, 26));
@@ -380,8 +1315,10 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.insets = new Insets(10, 20, 10, 20);
 
-        JButton btnLogin = new JButton("Login");
-        JButton btnViewDoctors = new JButton("View Doctors");
+        JButton btnLogin = btnWelcomeLogin = new JButton("Login");
+        JButton btnViewDoctors = btnWelcomeDoctors = new JButton("View Doctors");
+        btnLogin.setEnabled(false);
+        btnViewDoctors.setEnabled(false);
 
         btnLogin.setPreferredSize(new Dimension(220, 40));
         btnViewDoctors.setPreferredSize(new Dimension(220, 40));
@@ -396,7 +1333,8 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
 
         JPanel footer = new JPanel();
         footer.setOpaque(false);
-        footer.add(new JLabel("Made with ❤  •  Demo version (persistent to disk)"));
+        lblStatus = new JLabel("Loading records...");
+        footer.add(lblStatus);
         panel.add(footer, BorderLayout.SOUTH);
 
         return panel;
@@ -515,6 +1453,9 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
             btnNotifications.addActionListener(e -> pCards.show(pCardPanel, "notes"));
 
             pCards.show(pCardPanel, "book");
+
+            system.events().subscribe(e -> e.isDoctorEvent() || (loggedInUser instanceof Patient && e.involvesPatient((Patient) loggedInUser)),
+                    new SwingEventCoalescer(this::applyEvents));
         }
 
         private JPanel buildBookingPanel() {
@@ -550,6 +1491,10 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
             JButton btnBook = new JButton("Confirm Booking");
             gbc.gridx = 0; gbc.gridy = 4; gbc.gridwidth = 3; form.add(btnBook, gbc);
 
+            JButton btnWaitlist = new JButton("Join Waitlist...");
+            gbc.gridy = 5; form.add(btnWaitlist, gbc);
+            btnWaitlist.addActionListener(e -> showJoinWaitlistDialog());
+
             panel.add(form, BorderLayout.NORTH);
 
             btnBook.addActionListener(e -> {
@@ -572,7 +1517,6 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
                     notifications.notify(String.format("New appointment #%d: %s with %s at %s", appt.getId(), p.getUsername(), d.getName(), dt.format(dtFormatter)));
                     JOptionPane.showMessageDialog(this, "Appointment booked: #" + appt.getId());
                     txtReason.setText("");
-                    reloadMyAppointments();
                 } catch (DateTimeParseException ex) {
                     JOptionPane.showMessageDialog(this, "Invalid date or time format.", "Error", JOptionPane.ERROR_MESSAGE);
                 } catch (Exception ex) {
@@ -583,6 +1527,36 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
             return panel;
         }
 
+        private void showJoinWaitlistDialog() {
+            if (!(loggedInUser instanceof Patient)) { JOptionPane.showMessageDialog(this, "Not logged in as patient."); return; }
+            Doctor d = (Doctor) doctorCombo.getSelectedItem();
+            if (d == null) return;
+            JComboBox<String> cmbScope = new JComboBox<>(new String[]{ "Only " + d.getName(), "Any " + d.getSpecialization() + " doctor" });
+            JTextField txtFrom = new JTextField(txtDate.getText().trim());
+            JTextField txtTo = new JTextField(txtDate.getText().trim());
+            JPanel p = new JPanel(new GridLayout(0,1));
+            p.add(new JLabel("Doctor:")); p.add(cmbScope);
+            p.add(new JLabel("From (YYYY-MM-DD):")); p.add(txtFrom);
+            p.add(new JLabel("To (YYYY-MM-DD, inclusive):")); p.add(txtTo);
+            int res = JOptionPane.showConfirmDialog(this, p, "Join Waitlist", JOptionPane.OK_CANCEL_OPTION);
+            if (res != JOptionPane.OK_OPTION) return;
+            try {
+                LocalDateTime from = LocalDate.parse(txtFrom.getText().trim()).atStartOfDay();
+                LocalDateTime to = LocalDate.parse(txtTo.getText().trim()).plusDays(1).atStartOfDay();
+                Patient pt = (Patient) loggedInUser;
+                WaitlistEntry entry = cmbScope.getSelectedIndex() == 0
+                        ? WaitlistEntry.forDoctor(pt, d, from, to, 0)
+                        : WaitlistEntry.forSpecialization(pt, d.getSpecialization(), from, to, 0);
+                system.waitlist().join(entry);
+                notifications.notify("Waitlist: " + entry);
+                JOptionPane.showMessageDialog(this, "You are on the waitlist. A freed slot will be booked for you automatically.");
+            } catch (DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(this, "Invalid date format.", "Error", JOptionPane.ERROR_MESSAGE);
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
         private void showDoctorSlots(Doctor d) {
             if (d == null) return;
             JDialog dialog = new JDialog(HospitalAppointmentAppEnhanced.this, "Available Slots - " + d.getName(), true);
@@ -638,9 +1612,7 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
                         if (a.getStatus() == Appointment.Status.SCHEDULED) {
                             int confirm = JOptionPane.showConfirmDialog(PatientPanel.this, "Cancel appointment #"+apptId+"?", "Confirm", JOptionPane.YES_NO_OPTION);
                             if (confirm == JOptionPane.YES_OPTION) {
-                                a.cancel();
-                                notifications.notify(String.format("Appointment #%d canceled by patient %s", a.getId(), a.getPatient().getUsername()));
-                                reloadMyAppointments();
+                                if (system.cancelAppointment(a)) notifications.notify(String.format("Appointment #%d canceled by patient %s", a.getId(), a.getPatient().getUsername()));
                             }
                         }
                     });
@@ -669,15 +1641,35 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
             myApptModel.setRowCount(0);
             if (!(loggedInUser instanceof Patient)) return;
             Patient p = (Patient) loggedInUser;
+            for (Appointment a : system.getAppointmentsForPatient(p)) {
+                if (matchesFilter(a)) myApptModel.addRow(appointmentRow(a));
+            }
+        }
+
+        private boolean matchesFilter(Appointment a) {
             String q = searchField.getText().trim().toLowerCase();
             String status = (String) statusFilter.getSelectedItem();
-            for (Appointment a : system.getAppointmentsForPatient(p)) {
-                if (!"All".equals(status) && !a.getStatus().name().equals(status)) continue;
-                if (!q.isEmpty()) {
-                    boolean match = a.getDoctor().getName().toLowerCase().contains(q) || a.getReason().toLowerCase().contains(q) || String.valueOf(a.getId()).equals(q);
-                    if (!match) continue;
-                }
-                myApptModel.addRow(new Object[]{ a.getId(), a.getDoctor().getName(), a.getDateTime().format(dtFormatter), a.getReason(), a.getStatus(), (a.getStatus() == Appointment.Status.SCHEDULED ? "Cancel" : "-") });
+            if (!"All".equals(status) && !a.getStatus().name().equals(status)) return false;
+            return q.isEmpty() || a.getDoctor().getName().toLowerCase().contains(q) || a.getReason().toLowerCase().contains(q) || String.valueOf(a.getId()).equals(q);
+        }
+
+        private Object[] appointmentRow(Appointment a) {
+            return new Object[]{ a.getId(), a.getDoctor().getName(), a.getDateTime().format(dtFormatter), a.getReason(), a.getStatus(), (a.getStatus() == Appointment.Status.SCHEDULED ? "Cancel" : "-") };
+        }
+
+        /** Apply a coalesced batch of changes row by row instead of reloading the table. */
+        private void applyEvents(List<HospitalEvent> events) {
+            Map<Integer, Appointment> touched = new LinkedHashMap<>();
+            for (HospitalEvent e : events) {
+                if (e.getType() == HospitalEvent.Type.DOCTOR_ADDED) doctorCombo.addItem(e.getDoctor());
+                else if (e.getType() == HospitalEvent.Type.DOCTOR_REMOVED) doctorCombo.removeItem(e.getDoctor());
+                else touched.put(e.getAppointment().getId(), e.getAppointment());
+            }
+            if (!(loggedInUser instanceof Patient)) return;
+            Patient p = (Patient) loggedInUser;
+            for (Appointment a : touched.values()) {
+                boolean show = a.getPatient().getId() == p.getId() && matchesFilter(a);
+                upsertRow(myApptModel, a.getId(), show ? appointmentRow(a) : null);
             }
         }
 
@@ -699,6 +1691,7 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
     private class AdminPanel extends JPanel {
         private DefaultTableModel doctorModel;
         private DefaultTableModel statsModel;
+        private int total, sched, cancel, comp;
 
         public AdminPanel() {
             setLayout(new BorderLayout());
@@ -717,10 +1710,13 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
             docTable.getColumn("Action").setCellEditor(new ButtonEditor(new JCheckBox()) { @Override public void onClick(int row){
                 int docId = Integer.parseInt(doctorModel.getValueAt(row,0).toString());
                 int confirm = JOptionPane.showConfirmDialog(AdminPanel.this, "Delete doctor #"+docId+"?","Confirm", JOptionPane.YES_NO_OPTION);
-                if (confirm==JOptionPane.YES_OPTION) { system.removeDoctorByDocId(docId); refreshData(); }
+                if (confirm==JOptionPane.YES_OPTION) system.removeDoctorByDocId(docId);
             }});
             left.add(new JScrollPane(docTable), BorderLayout.CENTER);
-            JButton btnAdd = new JButton("Add Doctor"); btnAdd.addActionListener(e -> showAddDoctorDialog()); left.add(btnAdd, BorderLayout.SOUTH);
+            JPanel leftButtons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            JButton btnAdd = new JButton("Add Doctor"); btnAdd.addActionListener(e -> showAddDoctorDialog()); leftButtons.add(btnAdd);
+            JButton btnUnavailable = new JButton("Doctor Unavailable..."); btnUnavailable.addActionListener(e -> showDoctorUnavailableDialog()); leftButtons.add(btnUnavailable);
+            left.add(leftButtons, BorderLayout.SOUTH);
 
             JPanel right = new JPanel(new BorderLayout()); right.setBorder(new EmptyBorder(10,10,10,10));
             statsModel = new DefaultTableModel(new Object[]{"Metric","Value"},0);
@@ -737,6 +1733,8 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
 
             // update upcoming list every time refresh is called
             this.putClientProperty("upcomingArea", upcoming);
+
+            system.events().subscribe(new SwingEventCoalescer(this::applyEvents));
         }
 
         private void showAddDoctorDialog() {
@@ -756,30 +1754,105 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
             int res = JOptionPane.showConfirmDialog(this,p,"Add Doctor",JOptionPane.OK_CANCEL_OPTION);
             if (res==JOptionPane.OK_OPTION) {
                 Doctor d = new Doctor(txtUser.getText(), txtPass.getText(), txtFn.getText(), txtLn.getText(), txtEmail.getText(), txtSpec.getText());
-                system.addDoctor(d); refreshData();
+                system.addDoctor(d);
             }
         }
 
+        private void showDoctorUnavailableDialog() {
+            JComboBox<Doctor> cmbDoctor = new JComboBox<>();
+            JComboBox<Object> cmbTarget = new JComboBox<>();
+            cmbTarget.addItem("(cancel appointments)");
+            for (Doctor d : system.getDoctors()) { cmbDoctor.addItem(d); cmbTarget.addItem(d); }
+            JTextField txtFrom = new JTextField(LocalDate.now().toString());
+            JTextField txtTo = new JTextField(LocalDate.now().toString());
+            JPanel p = new JPanel(new GridLayout(0,1));
+            p.add(new JLabel("Doctor:")); p.add(cmbDoctor);
+            p.add(new JLabel("From (YYYY-MM-DD):")); p.add(txtFrom);
+            p.add(new JLabel("To (YYYY-MM-DD, inclusive):")); p.add(txtTo);
+            p.add(new JLabel("Reassign to:")); p.add(cmbTarget);
+            int res = JOptionPane.showConfirmDialog(this,p,"Doctor Unavailable",JOptionPane.OK_CANCEL_OPTION);
+            if (res!=JOptionPane.OK_OPTION) return;
+
+            Doctor d = (Doctor) cmbDoctor.getSelectedItem();
+            if (d == null) return;
+            LocalDateTime from, to;
+            try {
+                from = LocalDate.parse(txtFrom.getText().trim()).atStartOfDay();
+                to = LocalDate.parse(txtTo.getText().trim()).plusDays(1).atStartOfDay();
+            } catch (DateTimeParseException ex) {
+                JOptionPane.showMessageDialog(this, "Invalid date format.", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            BatchResult result;
+            List<String> msgs = new ArrayList<>();
+            if (cmbTarget.getSelectedItem() instanceof Doctor) {
+                Doctor target = (Doctor) cmbTarget.getSelectedItem();
+                List<Integer> ids = new ArrayList<>();
+                for (Appointment a : system.getAppointmentsForDoctor(d)) {
+                    if (a.getStatus()==Appointment.Status.SCHEDULED && !a.getDateTime().isBefore(from) && a.getDateTime().isBefore(to)) ids.add(a.getId());
+                }
+                result = system.reassignToDoctor(ids, target);
+                for (Appointment a : result.succeeded()) msgs.add(String.format("Appointment #%d moved from %s to %s", a.getId(), d.getName(), target.getName()));
+            } else {
+                result = system.cancelByDoctorAndDateRange(d, from, to);
+                for (Appointment a : result.succeeded()) msgs.add(String.format("Appointment #%d canceled: %s unavailable", a.getId(), d.getName()));
+            }
+            notifications.notifyBatch(msgs);
+
+            StringBuilder sb = new StringBuilder(result.toString());
+            for (BatchResult.Item item : result.getItems()) if (!item.isSuccess()) sb.append("\n").append(item.getAppointment() == null ? item.toString() : "Appt#" + item.getAppointment().getId() + ": " + item.getMessage());
+            JOptionPane.showMessageDialog(this, sb.toString(), "Doctor Unavailable", result.failureCount()==0 ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.WARNING_MESSAGE);
+        }
+
         public void refreshData() {
             doctorModel.setRowCount(0);
-            for (Doctor d : system.getDoctors()) doctorModel.addRow(new Object[]{d.getDocId(), d.getName(), d.getSpecialization(), d.getEmail(), "Delete"});
+            for (Doctor d : system.getDoctors()) doctorModel.addRow(doctorRow(d));
 
             statsModel.setRowCount(0);
-            int total = system.getAppointments().size();
-            long sched = system.getAppointments().stream().filter(a->a.getStatus()==Appointment.Status.SCHEDULED).count();
-            long cancel = system.getAppointments().stream().filter(a->a.getStatus()==Appointment.Status.CANCELLED).count();
-            long comp = system.getAppointments().stream().filter(a->a.getStatus()==Appointment.Status.COMPLETED).count();
+            total = system.getAppointments().size();
+            sched = (int) system.getAppointments().stream().filter(a->a.getStatus()==Appointment.Status.SCHEDULED).count();
+            cancel = (int) system.getAppointments().stream().filter(a->a.getStatus()==Appointment.Status.CANCELLED).count();
+            comp = (int) system.getAppointments().stream().filter(a->a.getStatus()==Appointment.Status.COMPLETED).count();
             statsModel.addRow(new Object[]{"Total Appointments", total});
             statsModel.addRow(new Object[]{"Scheduled", sched});
             statsModel.addRow(new Object[]{"Cancelled", cancel});
             statsModel.addRow(new Object[]{"Completed", comp});
 
+            refreshUpcoming();
+        }
+
+        private void refreshUpcoming() {
             JTextArea upcoming = (JTextArea) this.getClientProperty("upcomingArea");
             if (upcoming!=null) {
                 upcoming.setText("");
                 system.getAppointments().stream().filter(a->a.getStatus()==Appointment.Status.SCHEDULED).sorted(Comparator.comparing(Appointment::getDateTime)).limit(20).forEach(a-> upcoming.append(a.toString()+"\n"));
             }
         }
+
+        private Object[] doctorRow(Doctor d) { return new Object[]{d.getDocId(), d.getName(), d.getSpecialization(), d.getEmail(), "Delete"}; }
+
+        /** Doctor rows are patched in place and the counters adjusted from each status transition. */
+        private void applyEvents(List<HospitalEvent> events) {
+            boolean appointmentsChanged = false;
+            for (HospitalEvent e : events) {
+                switch (e.getType()) {
+                    case DOCTOR_ADDED: upsertRow(doctorModel, e.getDoctor().getDocId(), doctorRow(e.getDoctor())); continue;
+                    case DOCTOR_REMOVED: upsertRow(doctorModel, e.getDoctor().getDocId(), null); continue;
+                    case APPOINTMENT_BOOKED: total++; sched++; break;
+                    case APPOINTMENT_CANCELLED: sched--; cancel++; break;
+                    case APPOINTMENT_COMPLETED: sched--; comp++; break;
+                    default: break;
+                }
+                appointmentsChanged = true;
+            }
+            if (!appointmentsChanged || statsModel.getRowCount() < 4) return;
+            statsModel.setValueAt(total, 0, 1);
+            statsModel.setValueAt(sched, 1, 1);
+            statsModel.setValueAt(cancel, 2, 1);
+            statsModel.setValueAt(comp, 3, 1);
+            refreshUpcoming();
+        }
     }
 
     // ------------------------
@@ -808,23 +1881,50 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
                 system.findAppointmentById(apptId).ifPresent(a->{
                     if (a.getStatus()==Appointment.Status.SCHEDULED) {
                         int confirm = JOptionPane.showConfirmDialog(DoctorPanel.this, "Mark appointment #"+apptId+" as completed?","Confirm",JOptionPane.YES_NO_OPTION);
-                        if (confirm==JOptionPane.YES_OPTION) { a.complete(); notifications.notify("Appointment #"+apptId+" marked completed by doctor."); refreshData(); }
+                        if (confirm==JOptionPane.YES_OPTION) { if (system.completeAppointment(a)) notifications.notify("Appointment #"+apptId+" marked completed by doctor."); }
                     }
                 });
             }});
 
             add(new JScrollPane(table), BorderLayout.CENTER);
             JButton btnRefresh = new JButton("Refresh"); btnRefresh.addActionListener(e->refreshData()); add(btnRefresh, BorderLayout.SOUTH);
+
+            system.events().subscribe(e -> loggedInUser instanceof Doctor && e.involvesDoctor((Doctor) loggedInUser), new SwingEventCoalescer(this::applyEvents));
+        }
+
+        private Object[] appointmentRow(Appointment a) {
+            return new Object[]{ a.getId(), a.getPatient().getUsername(), a.getDateTime().format(dtFormatter), a.getReason(), a.getStatus(), (a.getStatus()==Appointment.Status.SCHEDULED?"Complete":"-") };
         }
 
         public void refreshData() {
             apptModel.setRowCount(0);
             if (!(loggedInUser instanceof Doctor)) return;
             Doctor d = (Doctor) loggedInUser;
-            for (Appointment a : system.getAppointmentsForDoctor(d)) {
-                apptModel.addRow(new Object[]{ a.getId(), a.getPatient().getUsername(), a.getDateTime().format(dtFormatter), a.getReason(), a.getStatus(), (a.getStatus()==Appointment.Status.SCHEDULED?"Complete":"-") });
+            for (Appointment a : system.getAppointmentsForDoctor(d)) apptModel.addRow(appointmentRow(a));
+        }
+
+        private void applyEvents(List<HospitalEvent> events) {
+            if (!(loggedInUser instanceof Doctor)) return;
+            Doctor d = (Doctor) loggedInUser;
+            Map<Integer, Appointment> touched = new LinkedHashMap<>();
+            for (HospitalEvent e : events) if (!e.isDoctorEvent()) touched.put(e.getAppointment().getId(), e.getAppointment());
+            for (Appointment a : touched.values()) upsertRow(apptModel, a.getId(), a.getDoctor().getDocId() == d.getDocId() ? appointmentRow(a) : null);
+        }
+    }
+
+    // ------------------------
+    // Reusable: row-level table update keyed by the ID in column 0 (null row = remove)
+    // ------------------------
+    private static void upsertRow(DefaultTableModel model, int id, Object[] row) {
+        for (int r = 0; r < model.getRowCount(); r++) {
+            if (!String.valueOf(id).equals(String.valueOf(model.getValueAt(r, 0)))) continue;
+            if (row == null) { model.removeRow(r); return; }
+            for (int c = 0; c < row.length; c++) {
+                if (!Objects.equals(model.getValueAt(r, c), row[c])) model.setValueAt(row[c], r, c);
             }
+            return;
         }
+        if (row != null) model.addRow(row);
     }
 
     // ------------------------
@@ -869,12 +1969,41 @@ public class HospitalAppointmentAppEnhanced extends JFrame {
     private LoginCallback loginCallback;
     private void setLoginCallback(LoginCallback cb) { this.loginCallback = cb; }
 
+    // ------------------------
+    // Startup timing (--measure-startup)
+    // ------------------------
+    static final class StartupTimer {
+        private final long startNanos = System.nanoTime();
+        private final boolean report;
+        private long firstFrameNanos, interactiveNanos;
+
+        StartupTimer(boolean report) { this.report = report; }
+
+        // Both marks are called on the EDT.
+        void markFirstFrame() { if (firstFrameNanos == 0) { firstFrameNanos = System.nanoTime(); maybeReport(); } }
+        void markInteractive() { if (interactiveNanos == 0) { interactiveNanos = System.nanoTime(); maybeReport(); } }
+
+        private void maybeReport() {
+            if (!report || firstFrameNanos == 0 || interactiveNanos == 0) return;
+            long jvmUptime = java.lang.management.ManagementFactory.getRuntimeMXBean().getUptime();
+            System.out.printf("time-to-first-frame: %.1f ms%n", (firstFrameNanos - startNanos) / 1e6);
+            System.out.printf("time-to-interactive: %.1f ms%n", (interactiveNanos - startNanos) / 1e6);
+            System.out.printf("(measured from main(); JVM uptime now %d ms)%n", jvmUptime);
+            System.exit(0);
+        }
+    }
+
     // ------------------------
     // Main
     // ------------------------
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--bench-waitlist")) {
+            WaitlistEngine.runBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 100_000, args.length > 2 ? Integer.parseInt(args[2]) : 100_000);
+            return;
+        }
+        StartupTimer startup = new StartupTimer(args.length > 0 && args[0].equals("--measure-startup"));
         SwingUtilities.invokeLater(() -> {
-            HospitalAppointmentAppEnhanced app = new HospitalAppointmentAppEnhanced();
+            HospitalAppointmentAppEnhanced app = new HospitalAppointmentAppEnhanced(startup);
             app.setVisible(true);
         });
     }
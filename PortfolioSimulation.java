@@ -1,11 +1,59 @@
 package assignment;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.random.RandomGenerator;
 import java.text.DecimalFormat;
 
 /**
  * Financial instrument hierarchy + portfolio return simulation.
  * Compile: javac PortfolioSimulation.java
- * Run:     java PortfolioSimulation
+ * Run:     java PortfolioSimulation            (single demo path)
+ *          java PortfolioSimulation mc [paths] [seed] [maxThreads]   (parallel Monte Carlo + scaling table)
+ *          java PortfolioSimulation risk [paths] [seed]   (streaming VaR / CVaR / drawdown)
+ *          java PortfolioSimulation vr [paths] [seed]     (antithetic / control variate / Sobol standard errors)
+ *          java PortfolioSimulation paths [file] [paths] [seed]   (full paths to a memory-mapped file, see PathFile)
+ *          java PortfolioSimulation scenarios [file|-] [paths] [seed]   (scenario grid with common random numbers)
+ *          java PortfolioSimulation whatif [paths] [seed]   (reweight cached per-instrument returns)
+ *          java PortfolioSimulation frontier [instruments]   (efficient frontier and max-Sharpe weights)
+ *          java PortfolioSimulation historical [csv|-] [paths] [seed]   (block bootstrap from price history)
+ *          java PortfolioSimulation options [paths] [seed]   (European / Asian option prices and Greeks)
+ *          java PortfolioSimulation distributed [workers] [paths] [seed]   (risk run on local worker JVMs, one killed mid-run)
+ *          java PortfolioSimulation coordinator [port] [paths] [seed]      (same, for workers started by hand:)
+ *          java PortfolioSimulation worker [host] [port]
+ *          java PortfolioSimulation normals [draws]   (Random vs ziggurat / Box-Muller normal generators)
+ *          java PortfolioSimulation bench   (object path vs compiled kernel)
  */
 public class PortfolioSimulation {
 
@@ -27,11 +75,30 @@ public class PortfolioSimulation {
          * Simulate a single-period (e.g., daily/monthly) return as a decimal.
          * Example: 0.01 = +1%
          */
-        public abstract double simulateReturn(Random rng);
+        public abstract double simulateReturn(RandomGenerator rng);
+
+        /** len single-period returns of one path into out[off..]. */
+        public abstract void simulateReturns(NormalGenerator normals, double[] out, int off, int len);
+
+        /**
+         * The instrument whose shock drives this one. Instruments sharing a driver move together
+         * inside a portfolio (a Derivative is driven by its underlying Stock). Null for instruments
+         * that do not use a Gaussian shock.
+         */
+        public FinancialInstrument riskDriver() { return this; }
+    }
+
+    /**
+     * An instrument whose return is a function of one N(0,1) risk-driver shock. Only these can be
+     * correlated through a CorrelationModel or compiled into a CompiledPortfolio.
+     */
+    interface ShockDriven {
+        /** Single-period return given this instrument's risk-driver shock z ~ N(0,1). */
+        double returnForShock(double z);
     }
 
     // ====== Stock ======
-    static class Stock extends FinancialInstrument {
+    static class Stock extends FinancialInstrument implements ShockDriven {
         private final double expectedReturn; // per-period drift (e.g., 0.01 = 1%)
         private final double volatility;     // per-period volatility (std dev)
 
@@ -41,16 +108,27 @@ public class PortfolioSimulation {
             this.volatility = volatility;
         }
 
+        public double getExpectedReturn() { return expectedReturn; }
+        public double getVolatility() { return volatility; }
+
+        @Override
+        public double simulateReturn(RandomGenerator rng) { return returnForShock(rng.nextGaussian()); }
+
         @Override
-        public double simulateReturn(Random rng) {
+        public double returnForShock(double z) {
             // Simple normal (Gaussian) model: r = mu + sigma * Z
-            double z = rng.nextGaussian();
             return expectedReturn + volatility * z;
         }
+
+        @Override
+        public void simulateReturns(NormalGenerator normals, double[] out, int off, int len) {
+            normals.fill(out, off, len);
+            for (int i = off; i < off + len; i++) out[i] = expectedReturn + volatility * out[i];
+        }
     }
 
     // ====== Bond ======
-    static class Bond extends FinancialInstrument {
+    static class Bond extends FinancialInstrument implements ShockDriven {
         private final double couponRate;     // per-period coupon as % of par (decimal)
         private final double durationYears;  // effective duration proxy (sensitivity to rate moves)
         private final double rateShockVol;   // std dev of rate shocks per period
@@ -62,18 +140,32 @@ public class PortfolioSimulation {
             this.rateShockVol = rateShockVol;
         }
 
+        public double getCouponRate() { return couponRate; }
+        public double getDurationYears() { return durationYears; }
+        public double getRateShockVol() { return rateShockVol; }
+
+        @Override
+        public double simulateReturn(RandomGenerator rng) { return returnForShock(rng.nextGaussian()); }
+
         @Override
-        public double simulateReturn(Random rng) {
+        public double returnForShock(double z) {
             // Very simplified:
             // Bond return ≈ coupon - duration * rateShock
             // where rateShock ~ N(0, rateShockVol)
-            double rateShock = rng.nextGaussian() * rateShockVol;
+            double rateShock = z * rateShockVol;
             return couponRate - durationYears * rateShock;
         }
+
+        @Override
+        public void simulateReturns(NormalGenerator normals, double[] out, int off, int len) {
+            normals.fill(out, off, len);
+            double b = -durationYears * rateShockVol;
+            for (int i = off; i < off + len; i++) out[i] = couponRate + b * out[i];
+        }
     }
 
     // ====== Derivative (e.g., a leveraged exposure to an underlying stock) ======
-    static class Derivative extends FinancialInstrument {
+    static class Derivative extends FinancialInstrument implements ShockDriven {
         private final Stock underlying;
         private final double leverage;       // sensitivity to underlying returns
         private final double carryCost;      // per-period cost (e.g., financing, theta), decimal
@@ -85,29 +177,392 @@ public class PortfolioSimulation {
             this.carryCost = carryCost;
         }
 
+        public Stock getUnderlying() { return underlying; }
+        public double getLeverage() { return leverage; }
+        public double getCarryCost() { return carryCost; }
+
+        @Override
+        public double simulateReturn(RandomGenerator rng) { return returnForShock(rng.nextGaussian()); }
+
         @Override
-        public double simulateReturn(Random rng) {
+        public double returnForShock(double z) {
             // Simple model: derivative return = leverage * underlying_return - carryCost
-            double rU = underlying.simulateReturn(rng);
+            double rU = underlying.returnForShock(z);
             return leverage * rU - carryCost;
         }
+
+        @Override
+        public void simulateReturns(NormalGenerator normals, double[] out, int off, int len) {
+            underlying.simulateReturns(normals, out, off, len);
+            for (int i = off; i < off + len; i++) out[i] = leverage * out[i] - carryCost;
+        }
+
+        @Override
+        public FinancialInstrument riskDriver() { return underlying.riskDriver(); }
+    }
+
+    // ====== Historical (bootstrapped) ======
+    /**
+     * Returns drawn from a historical series by stationary block bootstrap (Politis-Romano):
+     * each period continues the current block with probability 1 - 1/meanBlockLength, otherwise
+     * jumps to a uniformly chosen day, so volatility clustering and autocorrelation within blocks
+     * survive. The bootstrap cursor is per path and owned by the caller (see ObjectKernel).
+     */
+    static class HistoricalInstrument extends FinancialInstrument {
+        private final HistoricalSeries series;
+        private final int column;
+        private final double meanBlockLength;
+
+        public HistoricalInstrument(String symbol, double weight, HistoricalSeries series, double meanBlockLength) {
+            super(symbol, weight);
+            if (meanBlockLength < 1.0) throw new IllegalArgumentException("Mean block length must be >= 1.");
+            this.series = series;
+            this.column = series.column(symbol);
+            this.meanBlockLength = meanBlockLength;
+        }
+
+        public HistoricalSeries getSeries() { return series; }
+        public double getMeanBlockLength() { return meanBlockLength; }
+
+        /** Next bootstrap index after cursor; a negative cursor starts a new path. */
+        int nextIndex(int cursor, RandomGenerator rng) {
+            int n = series.length();
+            if (cursor < 0 || rng.nextDouble() * meanBlockLength < 1.0) return rng.nextInt(n);
+            return cursor + 1 == n ? 0 : cursor + 1;
+        }
+
+        double returnAt(int index) { return series.returnAt(column, index); }
+
+        /** A single independent draw (block length 1). */
+        @Override
+        public double simulateReturn(RandomGenerator rng) { return returnAt(rng.nextInt(series.length())); }
+
+        /** Consecutive stationary-bootstrap returns, one path of len periods. */
+        @Override
+        public void simulateReturns(NormalGenerator normals, double[] out, int off, int len) {
+            for (int i = off, cursor = -1; i < off + len; i++) out[i] = returnAt(cursor = nextIndex(cursor, normals));
+        }
+
+        @Override
+        public FinancialInstrument riskDriver() { return null; }
+    }
+
+    /**
+     * Per-period returns of one or more price series, read from a memory-mapped binary file so
+     * any number of simulations share the same off-heap data without copying.
+     *
+     * CSV input: a header line "date,SYM1,SYM2,..." then one line per day of prices; the first
+     * column is ignored. It is converted once to name.csv.bin, rebuilt when the CSV is newer.
+     * Binary layout (little-endian): long magic "PFHIST01", int version, int columns, long rows
+     * (returns per column), long dataOffset; then per column an int byte length and the UTF-8
+     * symbol; then, from dataOffset (8-byte aligned), the returns column by column.
+     */
+    static final class HistoricalSeries {
+        static final long MAGIC = 0x3130545349484650L; // "PFHIST01" read as a little-endian long
+        static final int VERSION = 1;
+        private static final double[] POW10 = new double[23];
+        static {
+            POW10[0] = 1.0;
+            for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10.0;
+        }
+
+        private final String[] symbols;
+        private final int rows;
+        private final DoubleBuffer data;
+
+        private HistoricalSeries(String[] symbols, int rows, DoubleBuffer data) {
+            this.symbols = symbols; this.rows = rows; this.data = data;
+        }
+
+        /** Opens csv's binary companion, converting the CSV first if needed. */
+        static HistoricalSeries load(Path csv) throws IOException {
+            Path bin = csv.resolveSibling(csv.getFileName() + ".bin");
+            if (!Files.exists(bin) || Files.getLastModifiedTime(bin).compareTo(Files.getLastModifiedTime(csv)) < 0) convert(csv, bin);
+            return open(bin);
+        }
+
+        static HistoricalSeries open(Path bin) throws IOException {
+            try (FileChannel ch = FileChannel.open(bin, StandardOpenOption.READ)) {
+                if (ch.size() > Integer.MAX_VALUE) throw new IOException("History file too large: " + bin);
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                if (buf.getLong(0) != MAGIC || buf.getInt(8) != VERSION) throw new IOException("Not a history file: " + bin);
+                int columns = buf.getInt(12);
+                long rows = buf.getLong(16);
+                int dataOffset = (int) buf.getLong(24);
+                String[] symbols = new String[columns];
+                int pos = 32;
+                for (int c = 0; c < columns; c++) {
+                    byte[] name = new byte[buf.getInt(pos)];
+                    buf.get(pos + 4, name);
+                    symbols[c] = new String(name, java.nio.charset.StandardCharsets.UTF_8);
+                    pos += 4 + name.length;
+                }
+                if (dataOffset + rows * columns * Double.BYTES != ch.size()) throw new IOException("Truncated history file: " + bin);
+                return new HistoricalSeries(symbols, (int) rows, buf.position(dataOffset).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+            }
+        }
+
+        /**
+         * CSV to binary. The CSV is mapped and scanned byte by byte; numbers are parsed in place
+         * (no String per line or per field), with exact fast paths for up to 18 significant digits.
+         */
+        static void convert(Path csv, Path bin) throws IOException {
+            String[] symbols;
+            double[][] prices;
+            int count = 0;
+            try (FileChannel ch = FileChannel.open(csv, StandardOpenOption.READ)) {
+                if (ch.size() > Integer.MAX_VALUE) throw new IOException("CSV too large: " + csv);
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                int end = buf.limit(), pos = 0;
+                while (pos < end && buf.get(pos) != '\n') pos++;
+                byte[] header = new byte[pos];
+                buf.get(0, header);
+                String[] fields = new String(header, java.nio.charset.StandardCharsets.UTF_8).trim().split(",");
+                if (fields.length < 2) throw new IOException("Expected 'date,SYMBOL,...' header in " + csv);
+                symbols = Arrays.copyOfRange(fields, 1, fields.length);
+                for (int c = 0; c < symbols.length; c++) symbols[c] = symbols[c].trim();
+                prices = new double[symbols.length][1024];
+                int line = 1;
+                while (++pos < end) {
+                    line++;
+                    int start = pos;
+                    while (pos < end && buf.get(pos) != ',' && buf.get(pos) != '\n') pos++; // date, ignored
+                    if (pos == start || pos >= end || buf.get(pos) == '\n') {
+                        if (pos == start || (pos == start + 1 && buf.get(start) == '\r')) continue; // blank line
+                        throw new IOException(csv + ":" + line + ": expected " + (symbols.length + 1) + " columns");
+                    }
+                    if (count == prices[0].length) {
+                        for (int c = 0; c < prices.length; c++) prices[c] = Arrays.copyOf(prices[c], count * 2);
+                    }
+                    for (int c = 0; c < symbols.length; c++) {
+                        int f = ++pos;
+                        while (pos < end && buf.get(pos) != ',' && buf.get(pos) != '\n') pos++;
+                        int fe = pos;
+                        if (fe > f && buf.get(fe - 1) == '\r') fe--;
+                        if ((c < symbols.length - 1) != (pos < end && buf.get(pos) == ',')) {
+                            throw new IOException(csv + ":" + line + ": expected " + (symbols.length + 1) + " columns");
+                        }
+                        prices[c][count] = parseNumber(buf, f, fe, csv, line);
+                    }
+                    count++;
+                }
+            }
+            if (count < 2) throw new IOException("Need at least two prices per column in " + csv);
+
+            int rows = count - 1;
+            byte[][] names = new byte[symbols.length][];
+            int headerBytes = 32;
+            for (int c = 0; c < symbols.length; c++) {
+                names[c] = symbols[c].getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                headerBytes += 4 + names[c].length;
+            }
+            int dataOffset = (headerBytes + 7) & ~7;
+            long size = dataOffset + (long) rows * symbols.length * Double.BYTES;
+            if (size > Integer.MAX_VALUE) throw new IOException("History too large for one mapping: " + csv);
+            Path tmp = bin.resolveSibling(bin.getFileName() + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer out = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                out.order(ByteOrder.LITTLE_ENDIAN);
+                out.putLong(0, MAGIC).putInt(8, VERSION).putInt(12, symbols.length).putLong(16, rows).putLong(24, dataOffset);
+                int pos = 32;
+                for (byte[] name : names) {
+                    out.putInt(pos, name.length).put(pos + 4, name);
+                    pos += 4 + name.length;
+                }
+                for (int c = 0; c < symbols.length; c++) {
+                    double[] p = prices[c];
+                    int base = dataOffset + c * rows * Double.BYTES;
+                    for (int t = 0; t < rows; t++) out.putDouble(base + t * Double.BYTES, p[t + 1] / p[t] - 1.0);
+                }
+                out.force();
+            }
+            Files.move(tmp, bin, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        /** Decimal number in buf[start, end): sign, digits, optional fraction and exponent. */
+        static double parseNumber(java.nio.ByteBuffer buf, int start, int end, Path file, int line) throws IOException {
+            int i = start;
+            while (i < end && buf.get(i) == ' ') i++;
+            while (end > i && buf.get(end - 1) == ' ') end--;
+            boolean negative = false;
+            if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) negative = buf.get(i++) == '-';
+            long mantissa = 0;
+            int significant = 0, scale = 0, digits = 0;
+            boolean dot = false;
+            for (; i < end; i++) {
+                byte b = buf.get(i);
+                if (b >= '0' && b <= '9') {
+                    digits++;
+                    if (significant < 18) {
+                        mantissa = mantissa * 10 + (b - '0');
+                        if (mantissa != 0) significant++;
+                        if (dot) scale++;
+                    } else if (!dot) {
+                        scale--;
+                    }
+                } else if (b == '.' && !dot) {
+                    dot = true;
+                } else if ((b == 'e' || b == 'E') && digits > 0) {
+                    break;
+                } else {
+                    throw new IOException(file + ":" + line + ": not a number");
+                }
+            }
+            if (digits == 0) throw new IOException(file + ":" + line + ": not a number");
+            int exponent = 0;
+            if (i < end) { // exponent part
+                boolean expNegative = false;
+                i++;
+                if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) expNegative = buf.get(i++) == '-';
+                if (i == end) throw new IOException(file + ":" + line + ": not a number");
+                for (; i < end; i++) {
+                    byte b = buf.get(i);
+                    if (b < '0' || b > '9') throw new IOException(file + ":" + line + ": not a number");
+                    exponent = Math.min(10_000, exponent * 10 + (b - '0'));
+                }
+                if (expNegative) exponent = -exponent;
+            }
+            int e10 = exponent - scale;
+            double value;
+            if (mantissa < (1L << 53) && Math.abs(e10) < POW10.length) {
+                // both operands exact, so one correctly rounded operation
+                value = e10 >= 0 ? mantissa * POW10[e10] : mantissa / POW10[-e10];
+            } else {
+                byte[] text = new byte[end - start];
+                buf.get(start, text);
+                value = Math.abs(Double.parseDouble(new String(text, java.nio.charset.StandardCharsets.US_ASCII).trim()));
+            }
+            return negative ? -value : value;
+        }
+
+        public int columns() { return symbols.length; }
+        public int length() { return rows; }
+        public String symbol(int column) { return symbols[column]; }
+
+        public int column(String symbol) {
+            for (int c = 0; c < symbols.length; c++) if (symbols[c].equals(symbol)) return c;
+            throw new IllegalArgumentException("No column " + symbol + " in history " + Arrays.toString(symbols));
+        }
+
+        public double returnAt(int column, int index) { return data.get(column * rows + index); }
     }
 
     // ====== Portfolio ======
     static class Portfolio {
         private final List<FinancialInstrument> holdings = new ArrayList<>();
+        private final Map<String, Double> pairCorrelations = new HashMap<>();
+        private CorrelationModel correlationModel;   // explicit model, or built from pairCorrelations
+        private boolean explicitModel;
 
         public Portfolio add(FinancialInstrument fi) {
             holdings.add(fi);
+            if (!explicitModel) correlationModel = null;
+            return this;
+        }
+
+        /** Correlation between the shocks of two risk drivers (Stocks / Bonds) of this portfolio. */
+        public Portfolio setCorrelation(String symbolA, String symbolB, double rho) {
+            if (rho < -1.0 || rho > 1.0) throw new IllegalArgumentException("Correlation must be in [-1, 1].");
+            pairCorrelations.put(pairKey(symbolA, symbolB), rho);
+            if (!explicitModel) correlationModel = null;
+            return this;
+        }
+
+        /** Use a prebuilt model (e.g. a FactorModel for large portfolios); dimension = riskDrivers().size(). */
+        public Portfolio setCorrelationModel(CorrelationModel model) {
+            this.correlationModel = model;
+            this.explicitModel = model != null;
             return this;
         }
 
+        private static String pairKey(String a, String b) { return a.compareTo(b) <= 0 ? a + "|" + b : b + "|" + a; }
+
+        /** Distinct risk drivers in order of first appearance. */
+        public List<FinancialInstrument> riskDrivers() {
+            List<FinancialInstrument> drivers = new ArrayList<>();
+            Set<FinancialInstrument> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (FinancialInstrument fi : holdings) {
+                if (fi.riskDriver() != null && seen.add(fi.riskDriver())) drivers.add(fi.riskDriver());
+            }
+            return drivers;
+        }
+
+        /** For each holding, the index of its driver in {@link #riskDrivers()}, or -1 if it has none. */
+        public int[] driverIndex() {
+            List<FinancialInstrument> drivers = riskDrivers();
+            Map<FinancialInstrument, Integer> pos = new IdentityHashMap<>();
+            for (int i = 0; i < drivers.size(); i++) pos.put(drivers.get(i), i);
+            int[] idx = new int[holdings.size()];
+            for (int i = 0; i < idx.length; i++) {
+                FinancialInstrument d = holdings.get(i).riskDriver();
+                idx[i] = d == null ? -1 : pos.get(d);
+            }
+            return idx;
+        }
+
+        /** The shock model over riskDrivers(); the Cholesky factor is computed once and cached. */
+        public CorrelationModel correlationModel() {
+            List<FinancialInstrument> drivers = riskDrivers();
+            if (correlationModel != null) {
+                if (correlationModel.dimension() != drivers.size()) throw new IllegalStateException("Correlation model has " + correlationModel.dimension() + " drivers, portfolio has " + drivers.size());
+                return correlationModel;
+            }
+            int n = drivers.size();
+            boolean any = false;
+            double[][] corr = new double[n][n];
+            for (int i = 0; i < n; i++) {
+                corr[i][i] = 1.0;
+                for (int j = 0; j < i; j++) {
+                    Double rho = pairCorrelations.get(pairKey(drivers.get(i).getSymbol(), drivers.get(j).getSymbol()));
+                    if (rho != null) { corr[i][j] = corr[j][i] = rho; any = true; }
+                }
+            }
+            correlationModel = any ? new CholeskyCorrelation(corr) : new IndependentShocks(n);
+            return correlationModel;
+        }
+
         public void normalizeWeights() {
+            double[] w = normalizedWeights();
+            for (int i = 0; i < w.length; i++) {
+                holdings.get(i).setWeight(w[i]);
+            }
+        }
+
+        /** Set holding weights in holding order, e.g. from an optimizer. */
+        public Portfolio setWeights(double[] w) {
+            if (w.length != holdings.size()) throw new IllegalArgumentException("Expected " + holdings.size() + " weights, got " + w.length);
+            for (int i = 0; i < w.length; i++) holdings.get(i).setWeight(w[i]);
+            return this;
+        }
+
+        /** Normalized weights in holding order, without touching the instruments. */
+        public double[] normalizedWeights() {
             double sum = holdings.stream().mapToDouble(FinancialInstrument::getWeight).sum();
             if (sum == 0.0) throw new IllegalArgumentException("Sum of weights is zero.");
+            double[] w = new double[holdings.size()];
+            for (int i = 0; i < w.length; i++) {
+                w[i] = holdings.get(i).getWeight() / sum;
+            }
+            return w;
+        }
+
+        /**
+         * Fill values[0..periods] with one path using the given weights and generator. Each period
+         * draws one set of driver shocks, so holdings on the same driver (a Derivative and its
+         * underlying) see the same shock and correlated drivers move together.
+         */
+        void simulatePath(double[] weights, RandomGenerator rng, double initialValue, double[] values) {
+            new ObjectKernel(this, weights).simulatePath(rng, initialValue, values);
+        }
+
+        /** True when every holding has a CompiledPortfolio representation. */
+        public boolean isCompilable() {
             for (FinancialInstrument fi : holdings) {
-                fi.setWeight(fi.getWeight() / sum);
+                if (!(fi instanceof Stock || fi instanceof Bond || fi instanceof Derivative)) return false;
             }
+            return true;
         }
 
         /**
@@ -123,26 +578,3324 @@ public class PortfolioSimulation {
             Random rng = new Random(seed);
 
             double[] values = new double[periods + 1];
-            values[0] = initialValue;
+            simulatePath(normalizedWeights(), rng, initialValue, values);
+            return values;
+        }
+
+        public List<FinancialInstrument> getHoldings() {
+            return Collections.unmodifiableList(holdings);
+        }
+    }
+
+    /** Simulates one path at a time; each task gets its own instance, so scratch state is never shared. */
+    interface PathKernel {
+        void simulatePath(RandomGenerator rng, double initialValue, double[] values);
+    }
+
+    /**
+     * The object path: virtual calls per holding, any instrument type. Holdings on the same
+     * HistoricalSeries share one bootstrap cursor per path, so their cross-sectional dependence
+     * is kept; the cursor restarts at the beginning of every path.
+     */
+    static final class ObjectKernel implements PathKernel {
+        private final ShockDriven[] shockDriven;          // null where the holding is historical
+        private final double[] weights;
+        private final CorrelationModel model;
+        private final int[] driver;
+        private final double[] e, z;
+        private final HistoricalInstrument[] historical; // null where the holding is shock-driven
+        private final int[] slot;                        // historical holding -> cursor slot
+        private final HistoricalInstrument[] slotOwner;   // first holding on each series
+        private final int[] cursor;
+
+        ObjectKernel(Portfolio pf, double[] weights) {
+            FinancialInstrument[] holdings = pf.getHoldings().toArray(new FinancialInstrument[0]);
+            this.weights = weights;
+            this.model = pf.correlationModel();
+            this.driver = pf.driverIndex();
+            this.e = new double[model.independentCount()];
+            this.z = new double[model.dimension()];
+            shockDriven = new ShockDriven[holdings.length];
+            historical = new HistoricalInstrument[holdings.length];
+            slot = new int[holdings.length];
+            List<HistoricalInstrument> owners = new ArrayList<>();
+            Map<HistoricalSeries, Integer> slots = new IdentityHashMap<>();
+            for (int i = 0; i < holdings.length; i++) {
+                if (holdings[i] instanceof HistoricalInstrument) {
+                    HistoricalInstrument h = (HistoricalInstrument) holdings[i];
+                    historical[i] = h;
+                    slot[i] = slots.computeIfAbsent(h.getSeries(), s -> { owners.add(h); return owners.size() - 1; });
+                } else if (holdings[i] instanceof ShockDriven) {
+                    shockDriven[i] = (ShockDriven) holdings[i];
+                } else {
+                    throw new IllegalArgumentException("Cannot simulate instrument type " + holdings[i].getClass().getSimpleName());
+                }
+            }
+            slotOwner = owners.toArray(new HistoricalInstrument[0]);
+            cursor = new int[slotOwner.length];
+        }
 
-            for (int t = 1; t <= periods; t++) {
+        @Override
+        public void simulatePath(RandomGenerator rng, double initialValue, double[] values) {
+            Arrays.fill(cursor, -1);
+            values[0] = initialValue;
+            for (int t = 1; t < values.length; t++) {
+                NormalGenerator.fill(rng, e, 0, e.length);
+                model.correlate(e, z);
+                for (int s = 0; s < cursor.length; s++) cursor[s] = slotOwner[s].nextIndex(cursor[s], rng);
                 double portfolioReturn = 0.0;
-                for (FinancialInstrument fi : holdings) {
-                    double r = fi.simulateReturn(rng);
-                    portfolioReturn += fi.getWeight() * r;
+                for (int i = 0; i < weights.length; i++) {
+                    double r = historical[i] != null ? historical[i].returnAt(cursor[slot[i]]) : shockDriven[i].returnForShock(z[driver[i]]);
+                    portfolioReturn += weights[i] * r;
                 }
                 values[t] = values[t - 1] * (1.0 + portfolioReturn);
             }
-            return values;
         }
+    }
 
-        public List<FinancialInstrument> getHoldings() {
-            return Collections.unmodifiableList(holdings);
+    // ====== Normal generators ======
+    /**
+     * A RandomGenerator that also fills arrays with N(0,1) draws in bulk. None of the
+     * implementations is thread-safe; give every thread (or every engine block) its own instance.
+     */
+    interface NormalGenerator extends RandomGenerator {
+        default void fill(double[] out, int off, int len) {
+            for (int i = off; i < off + len; i++) out[i] = nextGaussian();
+        }
+
+        /** Bulk draws from any generator; the same values, in the same order, as calling nextGaussian() len times. */
+        static void fill(RandomGenerator rng, double[] out, int off, int len) {
+            if (rng instanceof NormalGenerator) {
+                ((NormalGenerator) rng).fill(out, off, len);
+            } else {
+                for (int i = off; i < off + len; i++) out[i] = rng.nextGaussian();
+            }
+        }
+
+        /** Adapts a generator such as java.util.Random; draws are unchanged. */
+        static NormalGenerator of(RandomGenerator rng) {
+            if (rng instanceof NormalGenerator) return (NormalGenerator) rng;
+            return new NormalGenerator() {
+                @Override public long nextLong() { return rng.nextLong(); }
+                @Override public double nextDouble() { return rng.nextDouble(); }
+                @Override public double nextGaussian() { return rng.nextGaussian(); }
+            };
         }
     }
 
-    // ====== Demo (Main) ======
-    public static void main(String[] args) {
+    /**
+     * xoshiro256++ (Blackman and Vigna): four longs of state, a handful of shifts and adds per
+     * 64 bits, no synchronization. Seeded through SplitMix64, like the engine's block streams.
+     */
+    static abstract class Xoshiro256 implements NormalGenerator {
+        private long s0, s1, s2, s3;
+
+        Xoshiro256(long seed) {
+            s0 = mix(seed += 0x9E3779B97F4A7C15L);
+            s1 = mix(seed += 0x9E3779B97F4A7C15L);
+            s2 = mix(seed += 0x9E3779B97F4A7C15L);
+            s3 = mix(seed + 0x9E3779B97F4A7C15L);
+        }
+
+        static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        /** Seed of the independent stream for one engine block, mixed as in MonteCarloEngine.blockRandom. */
+        static long blockSeed(long seed, long block) { return mix(seed + (block + 1) * 0x9E3779B97F4A7C15L); }
+
+        @Override
+        public final long nextLong() {
+            long result = Long.rotateLeft(s0 + s3, 23) + s0;
+            long t = s1 << 17;
+            s2 ^= s0; s3 ^= s1; s1 ^= s2; s0 ^= s3;
+            s2 ^= t;
+            s3 = Long.rotateLeft(s3, 45);
+            return result;
+        }
+
+        @Override
+        public final double nextDouble() { return (nextLong() >>> 11) * 0x1.0p-53; }
+
+        /** Uniform in (0, 1], safe to take the log of. */
+        final double nextOpenDouble() { return ((nextLong() >>> 11) + 1) * 0x1.0p-53; }
+    }
+
+    /**
+     * Ziggurat sampler (Marsaglia and Tsang, with Doornik's 128-layer tables): one 64-bit draw per
+     * normal about 98% of the time, a multiply and a compare, no log, sqrt or trig on that path.
+     */
+    static final class ZigguratNormal extends Xoshiro256 {
+        private static final int LAYERS = 128;
+        private static final double R = 3.442619855899;       // start of the tail
+        private static final double V = 9.91256303526217e-3;  // area of every layer
+        private static final double[] X = new double[LAYERS + 1];
+        private static final double[] RATIO = new double[LAYERS];
+
+        static {
+            double f = Math.exp(-0.5 * R * R);
+            X[0] = V / f;
+            X[1] = R;
+            X[LAYERS] = 0.0;
+            for (int i = 2; i < LAYERS; i++) {
+                X[i] = Math.sqrt(-2.0 * Math.log(V / X[i - 1] + f));
+                f = Math.exp(-0.5 * X[i] * X[i]);
+            }
+            for (int i = 0; i < LAYERS; i++) RATIO[i] = X[i + 1] / X[i];
+        }
+
+        ZigguratNormal(long seed) { super(seed); }
+
+        static ZigguratNormal forBlock(long seed, long block) { return new ZigguratNormal(blockSeed(seed, block)); }
+
+        @Override
+        public double nextGaussian() {
+            while (true) {
+                long bits = nextLong();
+                int i = (int) bits & (LAYERS - 1);
+                double u = (bits >>> 11) * 0x1.0p-52 - 1.0; // (-1, 1); the low 7 bits picked the layer
+                if (Math.abs(u) < RATIO[i]) return u * X[i];
+                double x = slow(i, u);
+                if (!Double.isNaN(x)) return x;
+            }
+        }
+
+        @Override
+        public void fill(double[] out, int off, int len) {
+            double[] xs = X, ratio = RATIO;
+            for (int j = off, end = off + len; j < end; ) {
+                long bits = nextLong();
+                int i = (int) bits & (LAYERS - 1);
+                double u = (bits >>> 11) * 0x1.0p-52 - 1.0;
+                if (Math.abs(u) < ratio[i]) {
+                    out[j++] = u * xs[i];
+                } else {
+                    double x = slow(i, u);
+                    if (!Double.isNaN(x)) out[j++] = x;
+                }
+            }
+        }
+
+        /** Tail or wedge of layer i; NaN means reject and draw again. */
+        private double slow(int i, double u) {
+            if (i == 0) {
+                double x, y;
+                do {
+                    x = Math.log(nextOpenDouble()) / R;
+                    y = Math.log(nextOpenDouble());
+                } while (-2.0 * y < x * x);
+                return u < 0 ? x - R : R - x;
+            }
+            double x = u * X[i];
+            double f0 = Math.exp(-0.5 * (X[i] * X[i] - x * x));
+            double f1 = Math.exp(-0.5 * (X[i + 1] * X[i + 1] - x * x));
+            return f1 + nextDouble() * (f0 - f1) < 1.0 ? x : Double.NaN;
+        }
+    }
+
+    /**
+     * Box-Muller in two passes over the output: first all the uniforms, then the transform, which
+     * is a straight loop the JIT can keep in registers. Exact, but pays a log, a sqrt and a sin/cos
+     * pair per two draws.
+     */
+    static final class BoxMullerNormal extends Xoshiro256 {
+        private double spare;
+        private boolean hasSpare;
+
+        BoxMullerNormal(long seed) { super(seed); }
+
+        static BoxMullerNormal forBlock(long seed, long block) { return new BoxMullerNormal(blockSeed(seed, block)); }
+
+        @Override
+        public double nextGaussian() {
+            if (hasSpare) { hasSpare = false; return spare; }
+            double r = Math.sqrt(-2.0 * Math.log(nextOpenDouble())), theta = 2.0 * Math.PI * nextDouble();
+            spare = r * Math.sin(theta);
+            hasSpare = true;
+            return r * Math.cos(theta);
+        }
+
+        @Override
+        public void fill(double[] out, int off, int len) {
+            int j = off, end = off + len;
+            if (hasSpare && j < end) { out[j++] = spare; hasSpare = false; }
+            int pairsEnd = j + ((end - j) & ~1);
+            for (int k = j; k < pairsEnd; k += 2) {
+                out[k] = nextOpenDouble();
+                out[k + 1] = nextDouble();
+            }
+            for (int k = j; k < pairsEnd; k += 2) {
+                double r = Math.sqrt(-2.0 * Math.log(out[k])), theta = 2.0 * Math.PI * out[k + 1];
+                out[k] = r * Math.cos(theta);
+                out[k + 1] = r * Math.sin(theta);
+            }
+            if (pairsEnd < end) out[pairsEnd] = nextGaussian();
+        }
+    }
+
+    // ====== Correlated shocks ======
+    /** Maps a vector of independent N(0,1) draws to correlated N(0,1) shocks, one per risk driver. */
+    interface CorrelationModel {
+        /** Number of risk drivers (length of the output). */
+        int dimension();
+
+        /** Number of independent N(0,1) draws consumed per period. */
+        int independentCount();
+
+        void correlate(double[] independent, double[] out);
+
+        /** out = M^T v, where correlate computes M * independent; lets linear payoffs skip the mapping. */
+        void transposeMultiply(double[] v, double[] out);
+
+        /** Driver correlation matrix M M^T, row-major dimension() x dimension(). */
+        default double[] correlationMatrix() {
+            int d = dimension(), k = independentCount();
+            double[] m = new double[d * k], unit = new double[k], col = new double[d];
+            for (int j = 0; j < k; j++) {
+                unit[j] = 1.0;
+                correlate(unit, col);
+                unit[j] = 0.0;
+                for (int i = 0; i < d; i++) m[i * k + j] = col[i];
+            }
+            double[] c = new double[d * d];
+            for (int i = 0; i < d; i++) {
+                for (int j = 0; j <= i; j++) {
+                    double sum = 0.0;
+                    for (int x = 0; x < k; x++) sum += m[i * k + x] * m[j * k + x];
+                    c[i * d + j] = c[j * d + i] = sum;
+                }
+            }
+            return c;
+        }
+    }
+
+    static final class IndependentShocks implements CorrelationModel {
+        private final int n;
+
+        IndependentShocks(int n) { this.n = n; }
+
+        @Override public int dimension() { return n; }
+        @Override public int independentCount() { return n; }
+        @Override public void correlate(double[] independent, double[] out) { System.arraycopy(independent, 0, out, 0, n); }
+        @Override public void transposeMultiply(double[] v, double[] out) { System.arraycopy(v, 0, out, 0, n); }
+
+        @Override
+        public double[] correlationMatrix() {
+            double[] c = new double[n * n];
+            for (int i = 0; i < n; i++) c[i * n + i] = 1.0;
+            return c;
+        }
+    }
+
+    /** Full correlation matrix; its lower Cholesky factor is computed once, packed row by row. */
+    static final class CholeskyCorrelation implements CorrelationModel {
+        private final int n;
+        private final double[] l; // row i starts at i*(i+1)/2
+
+        CholeskyCorrelation(double[][] corr) {
+            n = corr.length;
+            l = new double[n * (n + 1) / 2];
+            for (int i = 0; i < n; i++) {
+                int ri = i * (i + 1) / 2;
+                for (int j = 0; j <= i; j++) {
+                    int rj = j * (j + 1) / 2;
+                    double sum = corr[i][j];
+                    for (int k = 0; k < j; k++) sum -= l[ri + k] * l[rj + k];
+                    if (i == j) {
+                        if (sum <= 0.0) throw new IllegalArgumentException("Correlation matrix is not positive definite.");
+                        l[ri + i] = Math.sqrt(sum);
+                    } else {
+                        l[ri + j] = sum / l[rj + j];
+                    }
+                }
+            }
+        }
+
+        /** From an already factored matrix, packed as {@link #factor()} returns it. */
+        CholeskyCorrelation(int n, double[] packedFactor) {
+            if (packedFactor.length != n * (n + 1) / 2) throw new IllegalArgumentException("Packed factor has the wrong length.");
+            this.n = n;
+            this.l = packedFactor.clone();
+        }
+
+        /** The lower factor, row i starting at i*(i+1)/2. */
+        double[] factor() { return l.clone(); }
+
+        @Override public int dimension() { return n; }
+        @Override public int independentCount() { return n; }
+
+        @Override
+        public void correlate(double[] independent, double[] out) {
+            for (int i = 0, r = 0; i < n; r += ++i) {
+                double sum = 0.0;
+                for (int k = 0; k <= i; k++) sum += l[r + k] * independent[k];
+                out[i] = sum;
+            }
+        }
+
+        @Override
+        public void transposeMultiply(double[] v, double[] out) {
+            Arrays.fill(out, 0, n, 0.0);
+            for (int i = 0, r = 0; i < n; r += ++i) {
+                double vi = v[i];
+                for (int k = 0; k <= i; k++) out[k] += l[r + k] * vi;
+            }
+        }
+
+        @Override
+        public double[] correlationMatrix() {
+            double[] c = new double[n * n];
+            for (int i = 0, ri = 0; i < n; ri += ++i) {
+                for (int j = 0, rj = 0; j <= i; rj += ++j) {
+                    double sum = 0.0;
+                    for (int k = 0; k <= j; k++) sum += l[ri + k] * l[rj + k];
+                    c[i * n + j] = c[j * n + i] = sum;
+                }
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Shocks from K shared factors plus an idiosyncratic part:
+     * z[d] = sum_k B[d][k] * f[k] + sqrt(1 - sum_k B[d][k]^2) * eps[d]. Costs O(D*K) per period, so it
+     * scales to thousands of drivers where a full Cholesky (O(D^2) per period) would not.
+     */
+    static final class FactorModel implements CorrelationModel {
+        private final int d, k;
+        private final double[] loadings; // row-major D x K
+        private final double[] idio;
+
+        FactorModel(double[][] loadings) {
+            d = loadings.length;
+            k = d == 0 ? 0 : loadings[0].length;
+            this.loadings = new double[d * k];
+            idio = new double[d];
+            for (int i = 0; i < d; i++) {
+                double ss = 0.0;
+                for (int j = 0; j < k; j++) {
+                    this.loadings[i * k + j] = loadings[i][j];
+                    ss += loadings[i][j] * loadings[i][j];
+                }
+                if (ss > 1.0) throw new IllegalArgumentException("Factor loadings of driver " + i + " explain more than 100% of variance.");
+                idio[i] = Math.sqrt(1.0 - ss);
+            }
+        }
+
+        /** Loadings as passed to the constructor. */
+        double[][] loadings() {
+            double[][] b = new double[d][k];
+            for (int i = 0; i < d; i++) System.arraycopy(loadings, i * k, b[i], 0, k);
+            return b;
+        }
+
+        @Override public int dimension() { return d; }
+        @Override public int independentCount() { return k + d; }
+
+        @Override
+        public void correlate(double[] independent, double[] out) {
+            for (int i = 0; i < d; i++) {
+                double sum = idio[i] * independent[k + i];
+                for (int j = 0; j < k; j++) sum += loadings[i * k + j] * independent[j];
+                out[i] = sum;
+            }
+        }
+
+        @Override
+        public void transposeMultiply(double[] v, double[] out) {
+            Arrays.fill(out, 0, k, 0.0);
+            for (int i = 0; i < d; i++) {
+                for (int j = 0; j < k; j++) out[j] += loadings[i * k + j] * v[i];
+                out[k + i] = idio[i] * v[i];
+            }
+        }
+
+        @Override
+        public double[] correlationMatrix() {
+            double[] c = new double[d * d];
+            for (int i = 0; i < d; i++) {
+                for (int j = 0; j < i; j++) {
+                    double sum = 0.0;
+                    for (int f = 0; f < k; f++) sum += loadings[i * k + f] * loadings[j * k + f];
+                    c[i * d + j] = c[j * d + i] = sum;
+                }
+                c[i * d + i] = 1.0;
+            }
+            return c;
+        }
+    }
+
+    // ====== Compiled (flattened) portfolio kernel ======
+    /**
+     * Holdings flattened into primitive parameter arrays, one slot per holding in holding order.
+     * Every model here is affine in its driver's Gaussian shock, so each holding reduces to
+     * r[i] = alpha[i] + beta[i] * z[driver[i]], with z = M * e for the independent draws e. The
+     * portfolio return is therefore sum(w*alpha) + dot(M^T (per-driver w*beta), e): the correlation
+     * matrix folds into one loading per independent draw at compile time, so a period costs one
+     * dot product however the drivers are correlated. Random numbers are drawn in the same order as
+     * the object path, so both agree to rounding.
+     */
+    static final class CompiledPortfolio {
+        static final byte STOCK = 0, BOND = 1, DERIVATIVE = 2;
+
+        final String[] symbols;
+        final byte[] typeCode;
+        final double[] drift;      // stock / derivative underlying drift
+        final double[] vol;        // stock / underlying volatility, bond rate-shock vol
+        final double[] coupon;
+        final double[] duration;
+        final double[] leverage;   // 1 for stocks and bonds
+        final double[] carry;
+        final double[] weight;     // normalized
+        final int[] driver;        // index into the correlation model's drivers
+
+        final CorrelationModel model;
+        final double[] alpha;      // r = alpha + beta * z[driver]
+        final double[] beta;
+        final double[] weightedBeta;
+        final double[] shockLoading; // M^T * (per-driver sum of w*beta), one per independent draw
+        final double weightedAlpha;
+
+        private CompiledPortfolio(int n) {
+            symbols = new String[n];
+            typeCode = new byte[n];
+            drift = new double[n]; vol = new double[n]; coupon = new double[n]; duration = new double[n];
+            leverage = new double[n]; carry = new double[n]; weight = new double[n];
+            driver = new int[n];
+            model = new IndependentShocks(n);
+            alpha = new double[n]; beta = new double[n]; weightedBeta = new double[n]; shockLoading = new double[n];
+            weightedAlpha = 0.0;
+        }
+
+        private CompiledPortfolio(CompiledPortfolio params, CorrelationModel model) {
+            symbols = params.symbols; typeCode = params.typeCode;
+            drift = params.drift; vol = params.vol; coupon = params.coupon; duration = params.duration;
+            leverage = params.leverage; carry = params.carry; weight = params.weight; driver = params.driver;
+            this.model = model;
+            int n = size();
+            alpha = new double[n]; beta = new double[n]; weightedBeta = new double[n];
+            double[] driverBeta = new double[model.dimension()];
+            double wa = 0.0;
+            for (int i = 0; i < n; i++) {
+                switch (typeCode[i]) {
+                    case BOND:
+                        alpha[i] = coupon[i];
+                        beta[i] = -duration[i] * vol[i];
+                        break;
+                    default: // STOCK (leverage 1, carry 0) and DERIVATIVE
+                        alpha[i] = leverage[i] * drift[i] - carry[i];
+                        beta[i] = leverage[i] * vol[i];
+                }
+                weightedBeta[i] = weight[i] * beta[i];
+                driverBeta[driver[i]] += weightedBeta[i];
+                wa += weight[i] * alpha[i];
+            }
+            weightedAlpha = wa;
+            shockLoading = new double[model.independentCount()];
+            model.transposeMultiply(driverBeta, shockLoading);
+        }
+
+        public static CompiledPortfolio compile(Portfolio pf) {
+            List<FinancialInstrument> h = pf.getHoldings();
+            double[] w = pf.normalizedWeights();
+            int[] drv = pf.driverIndex();
+            CompiledPortfolio c = new CompiledPortfolio(h.size());
+            for (int i = 0; i < h.size(); i++) {
+                FinancialInstrument fi = h.get(i);
+                if (!(fi instanceof ShockDriven)) {
+                    throw new IllegalArgumentException(fi.getSymbol() + " (" + fi.getClass().getSimpleName()
+                            + ") is not shock-driven and cannot be compiled; simulate it through ObjectKernel");
+                }
+                c.symbols[i] = fi.getSymbol();
+                c.weight[i] = w[i];
+                c.driver[i] = drv[i];
+                c.leverage[i] = 1.0;
+                if (fi instanceof Stock) {
+                    Stock s = (Stock) fi;
+                    c.typeCode[i] = STOCK; c.drift[i] = s.getExpectedReturn(); c.vol[i] = s.getVolatility();
+                } else if (fi instanceof Bond) {
+                    Bond b = (Bond) fi;
+                    c.typeCode[i] = BOND; c.coupon[i] = b.getCouponRate(); c.duration[i] = b.getDurationYears(); c.vol[i] = b.getRateShockVol();
+                } else if (fi instanceof Derivative) {
+                    Derivative d = (Derivative) fi;
+                    c.typeCode[i] = DERIVATIVE; c.drift[i] = d.getUnderlying().getExpectedReturn(); c.vol[i] = d.getUnderlying().getVolatility();
+                    c.leverage[i] = d.getLeverage(); c.carry[i] = d.getCarryCost();
+                } else {
+                    throw new IllegalArgumentException("Cannot compile instrument type " + fi.getClass().getSimpleName());
+                }
+            }
+            return new CompiledPortfolio(c, pf.correlationModel());
+        }
+
+        public int size() { return typeCode.length; }
+
+        /** Parameter-only copy with fresh arrays, to be edited and then {@link #rebuild() rebuilt}. */
+        CompiledPortfolio copyParameters() {
+            CompiledPortfolio c = new CompiledPortfolio(size());
+            System.arraycopy(symbols, 0, c.symbols, 0, size());
+            System.arraycopy(typeCode, 0, c.typeCode, 0, size());
+            System.arraycopy(drift, 0, c.drift, 0, size());
+            System.arraycopy(vol, 0, c.vol, 0, size());
+            System.arraycopy(coupon, 0, c.coupon, 0, size());
+            System.arraycopy(duration, 0, c.duration, 0, size());
+            System.arraycopy(leverage, 0, c.leverage, 0, size());
+            System.arraycopy(carry, 0, c.carry, 0, size());
+            System.arraycopy(weight, 0, c.weight, 0, size());
+            System.arraycopy(driver, 0, c.driver, 0, size());
+            return c;
+        }
+
+        /** Recompute the derived coefficients from (possibly edited) parameters. */
+        CompiledPortfolio rebuild(CorrelationModel model) { return new CompiledPortfolio(this, model); }
+
+        /** Everything a simulation depends on, for cache keys. */
+        String fingerprint() {
+            return Arrays.toString(weight) + Arrays.toString(alpha) + Arrays.toString(beta) + Arrays.toString(driver)
+                    + Arrays.toString(shockLoading) + weightedAlpha;
+        }
+
+        int indexOf(String symbol) {
+            for (int i = 0; i < symbols.length; i++) if (symbols[i].equals(symbol)) return i;
+            throw new IllegalArgumentException("Unknown symbol: " + symbol);
+        }
+
+        /** Independent N(0,1) draws per period. */
+        public int shockCount() { return shockLoading.length; }
+
+        /** Per-holding returns for one period's independent draws e; z is scratch of length model.dimension(). */
+        public void evaluateReturns(double[] e, double[] z, double[] out) {
+            model.correlate(e, z);
+            for (int i = 0; i < out.length; i++) {
+                out[i] = alpha[i] + beta[i] * z[driver[i]];
+            }
+        }
+
+        /** Portfolio return for one period's independent draws; four accumulators break the add dependency chain. */
+        public double portfolioReturn(double[] e) { return portfolioReturn(e, 0); }
+
+        /** As {@link #portfolioReturn(double[])}, reading the draws from e[off..off+shockCount()). */
+        public double portfolioReturn(double[] e, int off) {
+            double[] c = shockLoading;
+            int n = c.length, i = 0;
+            double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+            for (; i + 3 < n; i += 4) {
+                s0 += c[i] * e[off + i];
+                s1 += c[i + 1] * e[off + i + 1];
+                s2 += c[i + 2] * e[off + i + 2];
+                s3 += c[i + 3] * e[off + i + 3];
+            }
+            for (; i < n; i++) s0 += c[i] * e[off + i];
+            return weightedAlpha + ((s0 + s1) + (s2 + s3));
+        }
+
+        /** Expected single-period portfolio return (all draws have mean zero). */
+        public double expectedReturn() { return weightedAlpha; }
+
+        /**
+         * Fill values[0..periods] from pre-drawn shocks laid out period-major
+         * (shocks[(t-1)*shockCount() + k]). Returns the sum of the period returns, whose
+         * expectation is periods * expectedReturn().
+         */
+        public double simulatePath(double[] shocks, double initialValue, double[] values) {
+            int m = shockCount();
+            double sum = 0.0;
+            values[0] = initialValue;
+            for (int t = 1; t < values.length; t++) {
+                double r = portfolioReturn(shocks, (t - 1) * m);
+                sum += r;
+                values[t] = values[t - 1] * (1.0 + r);
+            }
+            return sum;
+        }
+
+        /** A kernel with its own scratch buffer. */
+        PathKernel kernel() {
+            double[] e = new double[shockCount()];
+            return (rng, initialValue, values) -> simulatePath(rng, e, initialValue, values);
+        }
+
+        /** Fill values[0..periods]; e is caller-owned scratch of length shockCount(). */
+        public void simulatePath(RandomGenerator rng, double[] e, double initialValue, double[] values) {
+            values[0] = initialValue;
+            for (int t = 1; t < values.length; t++) {
+                NormalGenerator.fill(rng, e, 0, e.length);
+                values[t] = values[t - 1] * (1.0 + portfolioReturn(e));
+            }
+        }
+    }
+
+    // ====== Parallel Monte Carlo ======
+    /**
+     * Runs many independent paths on a ForkJoinPool. Paths are grouped into fixed blocks of
+     * {@link #BLOCK_SIZE}; block b draws from its own generator seeded from (seed, b) (a
+     * SplittableRandom unless other BlockStreams are given), and the task tree splits on block
+     * boundaries only. Results are therefore identical for a given seed whatever the pool size.
+     */
+    static class MonteCarloEngine {
+        static final int BLOCK_SIZE = 1024;
+
+        /** Receives every simulated path; the array is reused, copy it if you keep it. */
+        interface PathVisitor {
+            void visit(long pathIndex, double[] path);
+        }
+
+        /** Generator for one block of paths; called once per block, so instances are never shared between threads. */
+        interface BlockStreams {
+            RandomGenerator forBlock(long seed, long block);
+        }
+
+        private final ForkJoinPool pool;
+        private final BlockStreams streams;
+
+        public MonteCarloEngine() { this(ForkJoinPool.commonPool()); }
+        public MonteCarloEngine(ForkJoinPool pool) { this(pool, MonteCarloEngine::blockRandom); }
+        public MonteCarloEngine(ForkJoinPool pool, BlockStreams streams) { this.pool = pool; this.streams = streams; }
+
+        /** Independent stream for one block of paths. */
+        static SplittableRandom blockRandom(long seed, long block) {
+            long z = seed + (block + 1) * 0x9E3779B97F4A7C15L;   // SplitMix64 finalizer
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return new SplittableRandom(z ^ (z >>> 31));
+        }
+
+        /**
+         * Map-reduce over paths: every leaf task gets a fresh accumulator from the factory, visits
+         * its paths in order, and results are combined in path order.
+         */
+        public <A extends PathVisitor> A run(Portfolio pf, int periods, double initialValue, long seed, long paths,
+                                             Supplier<A> factory, BinaryOperator<A> combine) {
+            if (pf.isCompilable()) return run(CompiledPortfolio.compile(pf), periods, initialValue, seed, paths, factory, combine);
+            double[] w = pf.normalizedWeights();
+            return run(() -> new ObjectKernel(pf, w), periods, initialValue, seed, paths, factory, combine);
+        }
+
+        public <A extends PathVisitor> A run(CompiledPortfolio cp, int periods, double initialValue, long seed, long paths,
+                                             Supplier<A> factory, BinaryOperator<A> combine) {
+            return run(cp::kernel, periods, initialValue, seed, paths, factory, combine);
+        }
+
+        /** Map-reduce over paths of any kernel; kernels must be safe to run concurrently as separate instances. */
+        public <A extends PathVisitor> A run(Supplier<? extends PathKernel> kernels, int periods, double initialValue, long seed,
+                                             long paths, Supplier<A> factory, BinaryOperator<A> combine) {
+            long blocks = (paths + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            return runBlocks(kernels, periods, initialValue, seed, paths, 0, blocks, factory, combine);
+        }
+
+        /** Only blocks [fromBlock, toBlock) of a run of paths; each block's paths are the same as in the full run. */
+        public <A extends PathVisitor> A runBlocks(Supplier<? extends PathKernel> kernels, int periods, double initialValue, long seed,
+                                                   long paths, long fromBlock, long toBlock, Supplier<A> factory, BinaryOperator<A> combine) {
+            return pool.invoke(new PathTask<>(streams, kernels, periods, initialValue, seed, paths, fromBlock, toBlock, factory, combine));
+        }
+
+        /** VaR/CVaR and drawdown statistics in memory independent of the number of paths. */
+        public RiskAccumulator risk(Portfolio pf, int periods, double initialValue, long seed, long paths, double... levels) {
+            return run(pf, periods, initialValue, seed, paths, () -> new RiskAccumulator(levels), RiskAccumulator::merge);
+        }
+
+        /** Terminal values of each path, in path order. */
+        public MonteCarloResult terminalValues(Portfolio pf, int periods, double initialValue, long seed, int paths) {
+            double[] out = new double[paths];
+            run(pf, periods, initialValue, seed, paths, () -> (i, path) -> out[(int) i] = path[periods], (a, b) -> a);
+            return new MonteCarloResult(out);
+        }
+
+        private static final class PathTask<A extends PathVisitor> extends RecursiveTask<A> {
+            private static final long serialVersionUID = 1L;
+
+            private final BlockStreams streams;
+            private final Supplier<? extends PathKernel> kernels;
+            private final int periods;
+            private final double initialValue;
+            private final long seed, paths, fromBlock, toBlock;
+            private final Supplier<A> factory;
+            private final BinaryOperator<A> combine;
+
+            PathTask(BlockStreams streams, Supplier<? extends PathKernel> kernels, int periods, double initialValue, long seed, long paths,
+                     long fromBlock, long toBlock, Supplier<A> factory, BinaryOperator<A> combine) {
+                this.streams = streams; this.kernels = kernels; this.periods = periods; this.initialValue = initialValue;
+                this.seed = seed; this.paths = paths; this.fromBlock = fromBlock; this.toBlock = toBlock;
+                this.factory = factory; this.combine = combine;
+            }
+
+            @Override
+            protected A compute() {
+                if (toBlock - fromBlock > 1) {
+                    long mid = (fromBlock + toBlock) >>> 1;
+                    PathTask<A> left = new PathTask<>(streams, kernels, periods, initialValue, seed, paths, fromBlock, mid, factory, combine);
+                    PathTask<A> right = new PathTask<>(streams, kernels, periods, initialValue, seed, paths, mid, toBlock, factory, combine);
+                    right.fork();
+                    A l = left.compute();
+                    return combine.apply(l, right.join());
+                }
+                A acc = factory.get();
+                double[] path = new double[periods + 1];
+                PathKernel kernel = kernels.get();
+                RandomGenerator rng = streams.forBlock(seed, fromBlock);
+                long end = Math.min(paths, (fromBlock + 1) * BLOCK_SIZE);
+                for (long i = fromBlock * BLOCK_SIZE; i < end; i++) {
+                    kernel.simulatePath(rng, initialValue, path);
+                    acc.visit(i, path);
+                }
+                return acc;
+            }
+        }
+    }
+
+    /** Runs body for every index in [from, to) on a ForkJoinPool, one index per leaf. */
+    static final class BlockAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final IntConsumer body;
+
+        BlockAction(int from, int to, IntConsumer body) {
+            this.from = from; this.to = to; this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BlockAction(from, mid, body), new BlockAction(mid, to, body));
+            } else if (from < to) {
+                body.accept(from);
+            }
+        }
+    }
+
+    /** Terminal-value distribution of a Monte Carlo run. */
+    static class MonteCarloResult {
+        private final double[] terminalValues;
+        private double[] sorted;
+
+        MonteCarloResult(double[] terminalValues) { this.terminalValues = terminalValues; }
+
+        public double[] getTerminalValues() { return terminalValues; }
+        public int size() { return terminalValues.length; }
+
+        public double mean() {
+            double sum = 0.0;
+            for (double v : terminalValues) sum += v;
+            return sum / terminalValues.length;
+        }
+
+        public double stdDev() {
+            double m = mean(), ss = 0.0;
+            for (double v : terminalValues) ss += (v - m) * (v - m);
+            return Math.sqrt(ss / (terminalValues.length - 1));
+        }
+
+        /** Empirical quantile, p in [0, 1]. */
+        public double quantile(double p) {
+            if (sorted == null) {
+                sorted = terminalValues.clone();
+                Arrays.sort(sorted);
+            }
+            int idx = (int) Math.min(sorted.length - 1, Math.max(0, Math.round(p * (sorted.length - 1))));
+            return sorted[idx];
+        }
+    }
+
+    // ====== Variance reduction ======
+    /**
+     * Sobol low-discrepancy sequence with 32-bit direction numbers. Primitive polynomials are
+     * enumerated over GF(2) in order of degree (so any dimension count works), and the free
+     * initial direction numbers of each dimension are fixed odd values from a per-dimension seed.
+     * Points are generated in Gray-code order: one XOR per coordinate per point.
+     */
+    static final class SobolSequence {
+        private final int dims;
+        private final int[][] v; // v[d][k]: direction number for bit k
+
+        SobolSequence(int dims) {
+            this.dims = dims;
+            v = new int[dims][32];
+            long[] polys = primitivePolynomials(Math.max(0, dims - 1));
+            for (int d = 0; d < dims; d++) {
+                long[] m = new long[33];
+                if (d == 0) {
+                    Arrays.fill(m, 1);
+                } else {
+                    long p = polys[d - 1];
+                    int deg = 63 - Long.numberOfLeadingZeros(p);
+                    SplittableRandom init = new SplittableRandom(0x50B01L * d);
+                    for (int k = 1; k <= Math.min(deg, 32); k++) m[k] = (init.nextLong(1L << (k - 1)) << 1) | 1;
+                    for (int k = deg + 1; k <= 32; k++) {
+                        long mk = m[k - deg] ^ (m[k - deg] << deg);
+                        for (int i = 1; i < deg; i++) {
+                            if (((p >>> (deg - i)) & 1) != 0) mk ^= m[k - i] << i;
+                        }
+                        m[k] = mk;
+                    }
+                }
+                for (int k = 1; k <= 32; k++) v[d][k - 1] = (int) (m[k] << (32 - k));
+            }
+        }
+
+        public int dimension() { return dims; }
+
+        /** Moves x from point n-1 to point n (n >= 1); point 0 is all zeros. */
+        public void advance(int[] x, long n) {
+            int[] row;
+            int bit = Long.numberOfTrailingZeros(n);
+            for (int d = 0; d < dims; d++) {
+                row = v[d];
+                x[d] ^= row[bit];
+            }
+        }
+
+        /** First count primitive polynomials over GF(2), bit i = coefficient of x^i. */
+        static long[] primitivePolynomials(int count) {
+            long[] out = new long[count];
+            int found = 0;
+            for (int deg = 1; found < count && deg <= 31; deg++) {
+                long order = (1L << deg) - 1;
+                List<Long> primes = primeFactors(order);
+                for (long p = (1L << deg) | 1; p < (1L << (deg + 1)) && found < count; p += 2) {
+                    if (powMod(2, order, p, deg) != 1) continue;
+                    boolean primitive = true;
+                    for (long q : primes) {
+                        if (powMod(2, order / q, p, deg) == 1) { primitive = false; break; }
+                    }
+                    if (primitive) out[found++] = p;
+                }
+            }
+            return out;
+        }
+
+        private static List<Long> primeFactors(long n) {
+            List<Long> f = new ArrayList<>();
+            for (long q = 2; q * q <= n; q++) {
+                if (n % q == 0) {
+                    f.add(q);
+                    while (n % q == 0) n /= q;
+                }
+            }
+            if (n > 1) f.add(n);
+            return f;
+        }
+
+        /** base^e modulo p in GF(2)[x]; polynomials as bit masks, p of degree deg. */
+        private static long powMod(long base, long e, long p, int deg) {
+            long result = 1;
+            while (e > 0) {
+                if ((e & 1) != 0) result = mulMod(result, base, p, deg);
+                base = mulMod(base, base, p, deg);
+                e >>>= 1;
+            }
+            return result;
+        }
+
+        private static long mulMod(long a, long b, long p, int deg) {
+            long r = 0;
+            while (b != 0) {
+                if ((b & 1) != 0) r ^= a;
+                b >>>= 1;
+                a <<= 1;
+                if (((a >>> deg) & 1) != 0) a ^= p;
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Estimates the expected terminal return E[V_T / V_0 - 1] with an optional variance-reduction
+     * method and reports its standard error. Work is split on fixed blocks (Sobol: randomization
+     * replicates) exactly like {@link MonteCarloEngine}, so results do not depend on the pool size.
+     */
+    static final class VarianceReducedEstimator {
+        enum Method { PLAIN, ANTITHETIC, CONTROL_VARIATE, SOBOL }
+
+        enum NormalTransform { INVERSE_CDF, BOX_MULLER }
+
+        /** Independent randomized-QMC replicates; the standard error comes from their spread. */
+        static final int SOBOL_REPLICATES = 32;
+
+        private final ForkJoinPool pool;
+
+        VarianceReducedEstimator(ForkJoinPool pool) { this.pool = pool; }
+
+        static final class Estimate {
+            final Method method;
+            final double mean, stdError;
+            final long paths;
+            final long nanos;
+
+            Estimate(Method method, double mean, double stdError, long paths, long nanos) {
+                this.method = method; this.mean = mean; this.stdError = stdError; this.paths = paths; this.nanos = nanos;
+            }
+        }
+
+        /** Raw sums of y (terminal return) and x (control); values are O(1), so cancellation is harmless. */
+        private static final class Moments {
+            long n;
+            double sy, syy, sx, sxx, sxy;
+
+            void add(double y, double x) {
+                n++; sy += y; syy += y * y; sx += x; sxx += x * x; sxy += x * y;
+            }
+
+            Moments merge(Moments o) {
+                n += o.n; sy += o.sy; syy += o.syy; sx += o.sx; sxx += o.sxx; sxy += o.sxy;
+                return this;
+            }
+        }
+
+        /** Fewest paths that give each method a finite mean and standard error. */
+        static long minPaths(Method method) {
+            switch (method) {
+                case ANTITHETIC: return 4;                  // two pairs
+                case CONTROL_VARIATE: return 3;             // regression uses n - 2 degrees of freedom
+                case SOBOL: return SOBOL_REPLICATES;        // one point per replicate
+                default: return 2;
+            }
+        }
+
+        public Estimate estimate(CompiledPortfolio cp, int periods, long seed, long paths, Method method, NormalTransform transform) {
+            if (paths < minPaths(method))
+                throw new IllegalArgumentException(method + " needs at least " + minPaths(method) + " paths, got " + paths);
+            long t0 = System.nanoTime();
+            int dims = periods * cp.shockCount();
+            SobolSequence sobol = method == Method.SOBOL ? new SobolSequence(transform == NormalTransform.BOX_MULLER ? (dims + 1) & ~1 : dims) : null;
+            long units = method == Method.SOBOL ? SOBOL_REPLICATES : (paths + MonteCarloEngine.BLOCK_SIZE - 1) / MonteCarloEngine.BLOCK_SIZE;
+            Moments m = pool.invoke(new BlockTask(cp, periods, seed, paths, method, transform, sobol, 0, units));
+            long nanos = System.nanoTime() - t0;
+
+            double n = m.n, my = m.sy / n, mx = m.sx / n;
+            double syy = m.syy - n * my * my, sxx = m.sxx - n * mx * mx, sxy = m.sxy - n * mx * my;
+            double mean, var;
+            if (method == Method.CONTROL_VARIATE && sxx > 0) {
+                double b = sxy / sxx;
+                mean = my - b * (mx - periods * cp.expectedReturn());
+                var = (syy - sxy * b) / (n - 2);
+            } else {
+                mean = my;
+                var = syy / (n - 1);
+            }
+            long used = method == Method.SOBOL ? (paths / SOBOL_REPLICATES) * SOBOL_REPLICATES
+                    : method == Method.ANTITHETIC ? (paths / 2) * 2 : paths; // an odd last path has no partner
+            return new Estimate(method, mean, Math.sqrt(var / n), used, nanos);
+        }
+
+        private static final class BlockTask extends RecursiveTask<Moments> {
+            private static final long serialVersionUID = 1L;
+
+            private final CompiledPortfolio cp;
+            private final int periods;
+            private final long seed, paths, from, to;
+            private final Method method;
+            private final NormalTransform transform;
+            private final SobolSequence sobol;
+
+            BlockTask(CompiledPortfolio cp, int periods, long seed, long paths, Method method, NormalTransform transform,
+                      SobolSequence sobol, long from, long to) {
+                this.cp = cp; this.periods = periods; this.seed = seed; this.paths = paths;
+                this.method = method; this.transform = transform; this.sobol = sobol; this.from = from; this.to = to;
+            }
+
+            @Override
+            protected Moments compute() {
+                if (to - from > 1) {
+                    long mid = (from + to) >>> 1;
+                    BlockTask right = new BlockTask(cp, periods, seed, paths, method, transform, sobol, mid, to);
+                    right.fork();
+                    Moments l = new BlockTask(cp, periods, seed, paths, method, transform, sobol, from, mid).compute();
+                    return l.merge(right.join());
+                }
+                return method == Method.SOBOL ? sobolReplicate() : pseudoRandomBlock();
+            }
+
+            private Moments pseudoRandomBlock() {
+                Moments acc = new Moments();
+                double[] shocks = new double[periods * cp.shockCount()];
+                double[] values = new double[periods + 1];
+                SplittableRandom rng = MonteCarloEngine.blockRandom(seed, from);
+                long count = Math.min(paths, (from + 1) * MonteCarloEngine.BLOCK_SIZE) - from * MonteCarloEngine.BLOCK_SIZE;
+                if (method == Method.ANTITHETIC) {
+                    for (long i = 0; i < count / 2; i++) { // each pair costs two paths
+                        NormalGenerator.fill(rng, shocks, 0, shocks.length);
+                        double x1 = cp.simulatePath(shocks, 1.0, values), y1 = values[periods] - 1.0;
+                        for (int k = 0; k < shocks.length; k++) shocks[k] = -shocks[k];
+                        double x2 = cp.simulatePath(shocks, 1.0, values), y2 = values[periods] - 1.0;
+                        acc.add(0.5 * (y1 + y2), 0.5 * (x1 + x2));
+                    }
+                } else {
+                    for (long i = 0; i < count; i++) {
+                        NormalGenerator.fill(rng, shocks, 0, shocks.length);
+                        double x = cp.simulatePath(shocks, 1.0, values);
+                        acc.add(values[periods] - 1.0, x);
+                    }
+                }
+                return acc;
+            }
+
+            /** One digitally shifted Sobol replicate; contributes its mean as a single sample. */
+            private Moments sobolReplicate() {
+                int dims = sobol.dimension();
+                int[] x = new int[dims], shift = new int[dims];
+                SplittableRandom rng = MonteCarloEngine.blockRandom(seed, from);
+                for (int d = 0; d < dims; d++) shift[d] = rng.nextInt();
+                double[] shocks = new double[dims];
+                double[] values = new double[periods + 1];
+                long points = paths / SOBOL_REPLICATES;
+                double sum = 0.0;
+                for (long n = 0; n < points; n++) {
+                    if (n > 0) sobol.advance(x, n);
+                    if (transform == NormalTransform.BOX_MULLER) {
+                        for (int d = 0; d < dims; d += 2) {
+                            double r = Math.sqrt(-2.0 * Math.log(uniform(x[d] ^ shift[d])));
+                            double theta = 2.0 * Math.PI * uniform(x[d + 1] ^ shift[d + 1]);
+                            shocks[d] = r * Math.cos(theta);
+                            shocks[d + 1] = r * Math.sin(theta);
+                        }
+                    } else {
+                        for (int d = 0; d < dims; d++) shocks[d] = inverseNormal(uniform(x[d] ^ shift[d]));
+                    }
+                    cp.simulatePath(shocks, 1.0, values);
+                    sum += values[periods] - 1.0;
+                }
+                Moments acc = new Moments();
+                acc.add(sum / points, 0.0);
+                return acc;
+            }
+        }
+
+        /** Unsigned 32-bit integer to the open interval (0, 1). */
+        static double uniform(int bits) { return ((bits & 0xFFFFFFFFL) + 0.5) * 0x1.0p-32; }
+
+        /** Acklam's rational approximation of the standard normal inverse CDF (relative error < 1.2e-9). */
+        static double inverseNormal(double p) {
+            final double plow = 0.02425;
+            if (p < plow) {
+                double q = Math.sqrt(-2 * Math.log(p));
+                return (((((-7.784894002430293e-03 * q - 3.223964580411365e-01) * q - 2.400758277161838e+00) * q
+                        - 2.549732539343734e+00) * q + 4.374664141464968e+00) * q + 2.938163982698783e+00)
+                        / ((((7.784695709041462e-03 * q + 3.224671290700398e-01) * q + 2.445134137142996e+00) * q
+                        + 3.754408661907416e+00) * q + 1);
+            }
+            if (p > 1 - plow) return -inverseNormal(1 - p);
+            double q = p - 0.5, r = q * q;
+            return (((((-3.969683028665376e+01 * r + 2.209460984245205e+02) * r - 2.759285104469687e+02) * r
+                    + 1.383577518672690e+02) * r - 3.066479806614716e+01) * r + 2.506628277459239e+00) * q
+                    / (((((-5.447609879822406e+01 * r + 1.615858368580409e+02) * r - 1.556989798598866e+02) * r
+                    + 6.680131188771972e+01) * r - 1.328068155288572e+01) * r + 1);
+        }
+    }
+
+    // ====== Option pricing ======
+    static final class OptionContract {
+        enum Type { CALL, PUT }
+
+        enum Style { EUROPEAN, ASIAN }   // Asian: arithmetic average of the period closes 1..maturity
+
+        final Type type;
+        final Style style;
+        final double strike;
+        final int maturity;              // periods
+
+        OptionContract(Type type, Style style, double strike, int maturity) {
+            if (maturity < 1) throw new IllegalArgumentException("Maturity must be at least one period.");
+            this.type = type; this.style = style; this.strike = strike; this.maturity = maturity;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s K=%.1f T=%d", style == Style.EUROPEAN ? "Euro" : "Asian", type == Type.CALL ? "call" : "put", strike, maturity);
+        }
+    }
+
+    /** Price and Greeks of one contract with the price's Monte Carlo standard error. */
+    static final class OptionQuote {
+        final OptionContract contract;
+        final double price, stdError, delta, gamma, vega;
+
+        OptionQuote(OptionContract contract, double price, double stdError, double delta, double gamma, double vega) {
+            this.contract = contract; this.price = price; this.stdError = stdError; this.delta = delta; this.gamma = gamma; this.vega = vega;
+        }
+    }
+
+    /**
+     * Prices European and Asian options on a Stock's price by risk-neutral Monte Carlo:
+     * S_t = S_{t-1} exp(r - sigma^2 / 2 + sigma z) per period, sigma = the Stock's per-period
+     * volatility. One pass to the longest maturity serves every contract: each is evaluated when
+     * its maturity is reached. Delta and vega are pathwise derivatives; gamma differences the
+     * pathwise delta at spot (1 +/- h) on the same path (common random numbers), which is
+     * exact path by path because prices scale linearly with spot. Parallelized on the Monte
+     * Carlo engine's blocks, so results do not depend on the pool size.
+     */
+    static final class OptionPricer {
+        private static final int SUMS = 5; // price, price^2, delta, delta(+h) - delta(-h), vega
+
+        private final ForkJoinPool pool;
+        private final double spot, rate, sigma;
+        private final double bump; // relative spot bump for the gamma difference
+
+        OptionPricer(ForkJoinPool pool, Stock underlying, double spot, double ratePerPeriod) {
+            this(pool, underlying, spot, ratePerPeriod, 0.01);
+        }
+
+        OptionPricer(ForkJoinPool pool, Stock underlying, double spot, double ratePerPeriod, double bump) {
+            this.pool = pool;
+            this.spot = spot;
+            this.rate = ratePerPeriod;
+            this.sigma = underlying.getVolatility();
+            this.bump = bump;
+        }
+
+        public List<OptionQuote> price(List<OptionContract> contracts, long seed, long paths) {
+            int maxT = 0;
+            for (OptionContract c : contracts) maxT = Math.max(maxT, c.maturity);
+            // contracts grouped by maturity: byMaturity[t] lists indices into contracts
+            int[][] byMaturity = new int[maxT + 1][];
+            int[] counts = new int[maxT + 1];
+            for (OptionContract c : contracts) counts[c.maturity]++;
+            for (int t = 0; t <= maxT; t++) byMaturity[t] = new int[counts[t]];
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < contracts.size(); i++) {
+                int t = contracts.get(i).maturity;
+                byMaturity[t][counts[t]++] = i;
+            }
+            OptionContract[] cs = contracts.toArray(new OptionContract[0]);
+            long blocks = (paths + MonteCarloEngine.BLOCK_SIZE - 1) / MonteCarloEngine.BLOCK_SIZE;
+            double[] sums = pool.invoke(new PricingTask(cs, byMaturity, maxT, seed, paths, 0, blocks));
+
+            List<OptionQuote> quotes = new ArrayList<>();
+            for (int i = 0; i < cs.length; i++) {
+                int o = i * SUMS;
+                double mean = sums[o] / paths;
+                double var = Math.max(0.0, (sums[o + 1] - paths * mean * mean) / (paths - 1));
+                quotes.add(new OptionQuote(cs[i], mean, Math.sqrt(var / paths), sums[o + 2] / paths,
+                        sums[o + 3] / paths / (2 * bump * spot), sums[o + 4] / paths));
+            }
+            return quotes;
+        }
+
+        private final class PricingTask extends RecursiveTask<double[]> {
+            private static final long serialVersionUID = 1L;
+
+            private final OptionContract[] contracts;
+            private final int[][] byMaturity;
+            private final int maxT;
+            private final long seed, paths, from, to;
+
+            PricingTask(OptionContract[] contracts, int[][] byMaturity, int maxT, long seed, long paths, long from, long to) {
+                this.contracts = contracts; this.byMaturity = byMaturity; this.maxT = maxT;
+                this.seed = seed; this.paths = paths; this.from = from; this.to = to;
+            }
+
+            @Override
+            protected double[] compute() {
+                if (to - from > 1) {
+                    long mid = (from + to) >>> 1;
+                    PricingTask right = new PricingTask(contracts, byMaturity, maxT, seed, paths, mid, to);
+                    right.fork();
+                    double[] l = new PricingTask(contracts, byMaturity, maxT, seed, paths, from, mid).compute();
+                    double[] r = right.join();
+                    for (int i = 0; i < l.length; i++) l[i] += r[i];
+                    return l;
+                }
+                double[] acc = new double[contracts.length * SUMS];
+                double[] discount = new double[maxT + 1];
+                for (int t = 0; t <= maxT; t++) discount[t] = Math.exp(-rate * t);
+                double drift = rate - 0.5 * sigma * sigma, up = 1 + bump, down = 1 - bump;
+                SplittableRandom rng = MonteCarloEngine.blockRandom(seed, from);
+                long end = Math.min(paths, (from + 1) * MonteCarloEngine.BLOCK_SIZE);
+                for (long p = from * MonteCarloEngine.BLOCK_SIZE; p < end; p++) {
+                    double s = spot, w = 0.0, sumS = 0.0, sumDs = 0.0;
+                    for (int t = 1; t <= maxT; t++) {
+                        double z = rng.nextGaussian();
+                        w += z;
+                        s *= Math.exp(drift + sigma * z);
+                        double ds = s * (w - sigma * t); // dS_t / dsigma
+                        sumS += s;
+                        sumDs += ds;
+                        for (int idx : byMaturity[t]) {
+                            OptionContract c = contracts[idx];
+                            boolean asian = c.style == OptionContract.Style.ASIAN;
+                            double x = asian ? sumS / t : s, dx = asian ? sumDs / t : ds, k = c.strike, df = discount[t];
+                            int o = idx * SUMS;
+                            double payoff, delta, deltaUp, deltaDown, vega;
+                            if (c.type == OptionContract.Type.CALL) {
+                                payoff = Math.max(x - k, 0.0);
+                                delta = x > k ? x / spot : 0.0;
+                                deltaUp = x * up > k ? x / spot : 0.0;
+                                deltaDown = x * down > k ? x / spot : 0.0;
+                                vega = x > k ? dx : 0.0;
+                            } else {
+                                payoff = Math.max(k - x, 0.0);
+                                delta = x < k ? -x / spot : 0.0;
+                                deltaUp = x * up < k ? -x / spot : 0.0;
+                                deltaDown = x * down < k ? -x / spot : 0.0;
+                                vega = x < k ? -dx : 0.0;
+                            }
+                            double v = df * payoff;
+                            acc[o] += v;
+                            acc[o + 1] += v * v;
+                            acc[o + 2] += df * delta;
+                            acc[o + 3] += df * (deltaUp - deltaDown);
+                            acc[o + 4] += df * vega;
+                        }
+                    }
+                }
+                return acc;
+            }
+        }
+
+        /** Black-Scholes reference for European contracts: { price, delta, gamma, vega }. */
+        double[] blackScholes(OptionContract c) {
+            double t = c.maturity, sd = sigma * Math.sqrt(t);
+            double d1 = (Math.log(spot / c.strike) + (rate + 0.5 * sigma * sigma) * t) / sd, d2 = d1 - sd;
+            double df = Math.exp(-rate * t), pdf = Math.exp(-0.5 * d1 * d1) / Math.sqrt(2 * Math.PI);
+            double gamma = pdf / (spot * sd), vega = spot * pdf * Math.sqrt(t);
+            if (c.type == OptionContract.Type.CALL) {
+                return new double[] { spot * normalCdf(d1) - c.strike * df * normalCdf(d2), normalCdf(d1), gamma, vega };
+            }
+            return new double[] { c.strike * df * normalCdf(-d2) - spot * normalCdf(-d1), normalCdf(d1) - 1, gamma, vega };
+        }
+
+        /** Standard normal CDF (Zelen & Severo, |error| < 7.5e-8). */
+        static double normalCdf(double x) {
+            double t = 1.0 / (1.0 + 0.2316419 * Math.abs(x));
+            double poly = t * (0.319381530 + t * (-0.356563782 + t * (1.781477937 + t * (-1.821255978 + t * 1.330274429))));
+            double tail = Math.exp(-0.5 * x * x) / Math.sqrt(2 * Math.PI) * poly;
+            return x >= 0 ? 1.0 - tail : tail;
+        }
+    }
+
+    // ====== Streaming risk statistics ======
+    /** Mean and variance in one pass (Welford); two accumulators merge exactly (Chan et al.). */
+    static final class RunningStats {
+        private long n;
+        private double mean, m2, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+        public void add(double x) {
+            n++;
+            double d = x - mean;
+            mean += d / n;
+            m2 += d * (x - mean);
+            if (x < min) min = x;
+            if (x > max) max = x;
+        }
+
+        public RunningStats merge(RunningStats o) {
+            if (o.n == 0) return this;
+            if (n == 0) { n = o.n; mean = o.mean; m2 = o.m2; min = o.min; max = o.max; return this; }
+            long total = n + o.n;
+            double d = o.mean - mean;
+            mean += d * o.n / total;
+            m2 += o.m2 + d * d * ((double) n * o.n / total);
+            n = total;
+            min = Math.min(min, o.min);
+            max = Math.max(max, o.max);
+            return this;
+        }
+
+        public long count() { return n; }
+        public double mean() { return mean; }
+        public double variance() { return n > 1 ? m2 / (n - 1) : 0.0; }
+        public double stdDev() { return Math.sqrt(variance()); }
+        public double min() { return min; }
+        public double max() { return max; }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeLong(n);
+            out.writeDouble(mean); out.writeDouble(m2); out.writeDouble(min); out.writeDouble(max);
+        }
+
+        /** Replaces this accumulator's state with one written by {@link #writeTo}. */
+        void readFrom(DataInput in) throws IOException {
+            n = in.readLong();
+            mean = in.readDouble(); m2 = in.readDouble(); min = in.readDouble(); max = in.readDouble();
+        }
+    }
+
+    /**
+     * Merging t-digest: a bounded set of weighted centroids, small near the tails and large in
+     * the middle, so extreme quantiles stay accurate while memory is O(compression) whatever the
+     * number of samples. Samples are buffered and folded in with a single sorted merge.
+     */
+    static final class TDigest {
+        private final double compression;
+        private double[] means, weights;
+        private int centroids;
+        private final double[] buffer;
+        private int buffered;
+        private double total, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+        TDigest() { this(200); }
+
+        TDigest(double compression) {
+            this.compression = compression;
+            int cap = (int) Math.ceil(compression) * 2 + 8;
+            means = new double[cap];
+            weights = new double[cap];
+            buffer = new double[cap * 4];
+        }
+
+        public void add(double x) {
+            if (buffered == buffer.length) compress();
+            buffer[buffered++] = x;
+            if (x < min) min = x;
+            if (x > max) max = x;
+        }
+
+        public TDigest merge(TDigest o) {
+            o.compress();
+            compress();
+            double[] m = new double[centroids + o.centroids], w = new double[m.length];
+            int i = 0, j = 0, k = 0;
+            while (i < centroids || j < o.centroids) {
+                if (j == o.centroids || (i < centroids && means[i] <= o.means[j])) { m[k] = means[i]; w[k++] = weights[i++]; }
+                else { m[k] = o.means[j]; w[k++] = o.weights[j++]; }
+            }
+            total += o.total;
+            min = Math.min(min, o.min);
+            max = Math.max(max, o.max);
+            collapse(m, w, k);
+            return this;
+        }
+
+        private void compress() {
+            if (buffered == 0) return;
+            Arrays.sort(buffer, 0, buffered);
+            double[] m = new double[centroids + buffered], w = new double[m.length];
+            int i = 0, j = 0, k = 0;
+            while (i < centroids || j < buffered) {
+                if (j == buffered || (i < centroids && means[i] <= buffer[j])) { m[k] = means[i]; w[k++] = weights[i++]; }
+                else { m[k] = buffer[j++]; w[k++] = 1.0; }
+            }
+            total += buffered;
+            buffered = 0;
+            collapse(m, w, k);
+        }
+
+        /** Greedy merge of sorted centroids under the q(1-q) size bound. */
+        private void collapse(double[] m, double[] w, int len) {
+            centroids = 0;
+            if (len == 0) return;
+            double curMean = m[0], curWeight = w[0], before = 0.0;
+            for (int i = 1; i < len; i++) {
+                double proposed = curWeight + w[i];
+                double q0 = before / total, q2 = (before + proposed) / total;
+                double limit = total * 4.0 * Math.min(q0 * (1 - q0), q2 * (1 - q2)) / compression;
+                if (proposed <= Math.max(1.0, limit)) {
+                    curMean += (m[i] - curMean) * w[i] / proposed;
+                    curWeight = proposed;
+                } else {
+                    emit(curMean, curWeight);
+                    before += curWeight;
+                    curMean = m[i];
+                    curWeight = w[i];
+                }
+            }
+            emit(curMean, curWeight);
+        }
+
+        private void emit(double mean, double weight) {
+            if (centroids == means.length) {
+                means = Arrays.copyOf(means, centroids * 2);
+                weights = Arrays.copyOf(weights, centroids * 2);
+            }
+            means[centroids] = mean;
+            weights[centroids++] = weight;
+        }
+
+        public double count() { compress(); return total; }
+
+        /** Approximate quantile, q in [0, 1]; interpolates between centroid centres. */
+        public double quantile(double q) {
+            compress();
+            if (centroids == 0) return Double.NaN;
+            double target = q * total, cum = 0.0;
+            double prevCenter = 0.0, prevMean = min;
+            for (int i = 0; i < centroids; i++) {
+                double center = cum + weights[i] / 2.0;
+                if (target < center) {
+                    double f = center == prevCenter ? 0.0 : (target - prevCenter) / (center - prevCenter);
+                    return prevMean + f * (means[i] - prevMean);
+                }
+                prevCenter = center;
+                prevMean = means[i];
+                cum += weights[i];
+            }
+            double f = total == prevCenter ? 1.0 : (target - prevCenter) / (total - prevCenter);
+            return prevMean + f * (max - prevMean);
+        }
+
+        /** Mean of the lowest q fraction of samples (the tail CVaR is taken over). */
+        public double lowerTailMean(double q) {
+            compress();
+            double target = q * total, cum = 0.0, sum = 0.0;
+            for (int i = 0; i < centroids && cum < target; i++) {
+                double take = Math.min(weights[i], target - cum);
+                sum += take * means[i];
+                cum += take;
+            }
+            return cum == 0.0 ? Double.NaN : sum / cum;
+        }
+
+        /** Flushes the buffer first, so a digest read back merges exactly like the original would. */
+        void writeTo(DataOutput out) throws IOException {
+            compress();
+            out.writeDouble(total); out.writeDouble(min); out.writeDouble(max);
+            out.writeInt(centroids);
+            for (int i = 0; i < centroids; i++) { out.writeDouble(means[i]); out.writeDouble(weights[i]); }
+        }
+
+        /** Replaces this digest's state with one written by {@link #writeTo}; compression is not transferred. */
+        void readFrom(DataInput in) throws IOException {
+            total = in.readDouble(); min = in.readDouble(); max = in.readDouble();
+            centroids = in.readInt();
+            buffered = 0;
+            if (centroids > means.length) { means = new double[centroids]; weights = new double[centroids]; }
+            for (int i = 0; i < centroids; i++) { means[i] = in.readDouble(); weights[i] = in.readDouble(); }
+        }
+    }
+
+    /**
+     * Constant-memory risk summary of a Monte Carlo run: terminal-value moments, a t-digest of
+     * period-to-horizon returns for VaR/CVaR, and per-path maximum drawdown. One instance per
+     * task; partial results merge in path order.
+     */
+    static final class RiskAccumulator implements MonteCarloEngine.PathVisitor {
+        private final double[] levels;
+        private final RunningStats terminal = new RunningStats();
+        private final RunningStats drawdown = new RunningStats();
+        private final TDigest returns = new TDigest();
+        private final TDigest drawdowns = new TDigest();
+
+        /** levels are confidence levels, e.g. 0.95 and 0.99. */
+        RiskAccumulator(double... levels) { this.levels = levels.clone(); }
+
+        @Override
+        public void visit(long pathIndex, double[] path) {
+            double peak = path[0], maxDd = 0.0;
+            for (int t = 1; t < path.length; t++) {
+                double v = path[t];
+                if (v > peak) peak = v;
+                else if (1.0 - v / peak > maxDd) maxDd = 1.0 - v / peak;
+            }
+            double end = path[path.length - 1];
+            terminal.add(end);
+            returns.add(end / path[0] - 1.0);
+            drawdown.add(maxDd);
+            drawdowns.add(maxDd);
+        }
+
+        public RiskAccumulator merge(RiskAccumulator o) {
+            terminal.merge(o.terminal);
+            drawdown.merge(o.drawdown);
+            returns.merge(o.returns);
+            drawdowns.merge(o.drawdowns);
+            return this;
+        }
+
+        public double[] levels() { return levels.clone(); }
+        public RunningStats terminal() { return terminal; }
+        public RunningStats maxDrawdown() { return drawdown; }
+
+        /** Value at risk as a positive fraction of initial value, at confidence level. */
+        public double valueAtRisk(double level) { return -returns.quantile(1.0 - level); }
+
+        /** Expected shortfall beyond the VaR, as a positive fraction of initial value. */
+        public double conditionalValueAtRisk(double level) { return -returns.lowerTailMean(1.0 - level); }
+
+        /** Drawdown exceeded with probability 1 - level. */
+        public double drawdownQuantile(double level) { return drawdowns.quantile(level); }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeInt(levels.length);
+            for (double l : levels) out.writeDouble(l);
+            terminal.writeTo(out);
+            drawdown.writeTo(out);
+            returns.writeTo(out);
+            drawdowns.writeTo(out);
+        }
+
+        static RiskAccumulator readFrom(DataInput in) throws IOException {
+            double[] levels = new double[in.readInt()];
+            for (int i = 0; i < levels.length; i++) levels[i] = in.readDouble();
+            RiskAccumulator acc = new RiskAccumulator(levels);
+            acc.terminal.readFrom(in);
+            acc.drawdown.readFrom(in);
+            acc.returns.readFrom(in);
+            acc.drawdowns.readFrom(in);
+            return acc;
+        }
+    }
+
+    // ====== Distributed runs ======
+    /**
+     * A risk run split into chunks of engine blocks, everything a worker needs to compute any chunk.
+     * A chunk's result depends only on the job and its block range, and chunks are merged in chunk
+     * order, so the outcome is fixed by (job, chunkBlocks) whichever worker computed what.
+     */
+    static final class DistributedJob {
+        final CompiledPortfolio portfolio;
+        final int periods;
+        final double initialValue;
+        final long seed, paths;
+        final double[] levels;
+        final int chunkBlocks;
+
+        DistributedJob(CompiledPortfolio portfolio, int periods, double initialValue, long seed, long paths, int chunkBlocks, double... levels) {
+            if (chunkBlocks < 1) throw new IllegalArgumentException("chunkBlocks must be positive.");
+            this.portfolio = portfolio; this.periods = periods; this.initialValue = initialValue;
+            this.seed = seed; this.paths = paths; this.chunkBlocks = chunkBlocks; this.levels = levels.clone();
+        }
+
+        int chunks() {
+            long blocks = (paths + MonteCarloEngine.BLOCK_SIZE - 1) / MonteCarloEngine.BLOCK_SIZE;
+            return Math.toIntExact((blocks + chunkBlocks - 1) / chunkBlocks);
+        }
+
+        RiskAccumulator runChunk(MonteCarloEngine engine, int chunk) {
+            long blocks = (paths + MonteCarloEngine.BLOCK_SIZE - 1) / MonteCarloEngine.BLOCK_SIZE;
+            long from = (long) chunk * chunkBlocks, to = Math.min(blocks, from + chunkBlocks);
+            return engine.runBlocks(portfolio::kernel, periods, initialValue, seed, paths, from, to,
+                    () -> new RiskAccumulator(levels), RiskAccumulator::merge);
+        }
+
+        /** The whole job in this JVM, chunk by chunk; what a distributed run must reproduce bit for bit. */
+        RiskAccumulator runLocally(MonteCarloEngine engine) {
+            RiskAccumulator total = new RiskAccumulator(levels);
+            for (int c = 0; c < chunks(); c++) total.merge(runChunk(engine, c));
+            return total;
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeInt(periods); out.writeDouble(initialValue); out.writeLong(seed); out.writeLong(paths); out.writeInt(chunkBlocks);
+            out.writeInt(levels.length);
+            for (double l : levels) out.writeDouble(l);
+            CompiledPortfolio cp = portfolio;
+            out.writeInt(cp.size());
+            for (int i = 0; i < cp.size(); i++) {
+                out.writeUTF(cp.symbols[i]); out.writeByte(cp.typeCode[i]);
+                out.writeDouble(cp.drift[i]); out.writeDouble(cp.vol[i]); out.writeDouble(cp.coupon[i]); out.writeDouble(cp.duration[i]);
+                out.writeDouble(cp.leverage[i]); out.writeDouble(cp.carry[i]); out.writeDouble(cp.weight[i]); out.writeInt(cp.driver[i]);
+            }
+            writeModel(cp.model, out);
+        }
+
+        static DistributedJob readFrom(DataInput in) throws IOException {
+            int periods = in.readInt();
+            double initialValue = in.readDouble();
+            long seed = in.readLong(), paths = in.readLong();
+            int chunkBlocks = in.readInt();
+            double[] levels = new double[in.readInt()];
+            for (int i = 0; i < levels.length; i++) levels[i] = in.readDouble();
+            CompiledPortfolio cp = new CompiledPortfolio(in.readInt());
+            for (int i = 0; i < cp.size(); i++) {
+                cp.symbols[i] = in.readUTF(); cp.typeCode[i] = in.readByte();
+                cp.drift[i] = in.readDouble(); cp.vol[i] = in.readDouble(); cp.coupon[i] = in.readDouble(); cp.duration[i] = in.readDouble();
+                cp.leverage[i] = in.readDouble(); cp.carry[i] = in.readDouble(); cp.weight[i] = in.readDouble(); cp.driver[i] = in.readInt();
+            }
+            return new DistributedJob(cp.rebuild(readModel(in)), periods, initialValue, seed, paths, chunkBlocks, levels);
+        }
+
+        /** Models travel in their factored form, so the worker maps draws exactly as the coordinator would. */
+        private static void writeModel(CorrelationModel m, DataOutput out) throws IOException {
+            if (m instanceof IndependentShocks) {
+                out.writeByte(0); out.writeInt(m.dimension());
+            } else if (m instanceof CholeskyCorrelation) {
+                double[] l = ((CholeskyCorrelation) m).factor();
+                out.writeByte(1); out.writeInt(m.dimension());
+                for (double x : l) out.writeDouble(x);
+            } else if (m instanceof FactorModel) {
+                double[][] b = ((FactorModel) m).loadings();
+                int k = m.independentCount() - m.dimension();
+                out.writeByte(2); out.writeInt(m.dimension()); out.writeInt(k);
+                for (double[] row : b) for (double x : row) out.writeDouble(x);
+            } else {
+                throw new IllegalArgumentException("Cannot send correlation model " + m.getClass().getSimpleName());
+            }
+        }
+
+        private static CorrelationModel readModel(DataInput in) throws IOException {
+            byte type = in.readByte();
+            int d = in.readInt();
+            switch (type) {
+                case 0:
+                    return new IndependentShocks(d);
+                case 1: {
+                    double[] l = new double[d * (d + 1) / 2];
+                    for (int i = 0; i < l.length; i++) l[i] = in.readDouble();
+                    return new CholeskyCorrelation(d, l);
+                }
+                case 2: {
+                    double[][] b = new double[d][in.readInt()];
+                    for (double[] row : b) for (int j = 0; j < row.length; j++) row[j] = in.readDouble();
+                    return new FactorModel(b);
+                }
+                default:
+                    throw new IOException("Unknown correlation model type " + type);
+            }
+        }
+    }
+
+    /**
+     * Hands the chunks of a DistributedJob to workers connecting over TCP, one chunk in flight per
+     * worker. Each connection speaks java.io.Data streams:
+     *   coordinator -> worker: MAGIC, the job, then CHUNK id ... and finally END;
+     *   worker -> coordinator: RESULT id + serialized RiskAccumulator for every CHUNK.
+     * A worker that disconnects or stays silent past the timeout is dropped and its chunk goes back to
+     * the front of the queue; results are merged in chunk order once all are in. Worker events go to
+     * the log sink given at construction.
+     */
+    static final class Coordinator {
+        static final int MAGIC = 0x50465731; // "PFW1"
+        static final byte CHUNK = 1, RESULT = 2, END = 3;
+
+        private final DistributedJob job;
+        private final int chunkTimeoutMillis;
+        private final Consumer<String> log;
+        private final RiskAccumulator[] results;
+        private final BlockingDeque<Integer> pending = new LinkedBlockingDeque<>();
+        private final CountDownLatch done;
+        private final AtomicInteger requeued = new AtomicInteger();
+        private final AtomicInteger connected = new AtomicInteger(), lost = new AtomicInteger();
+        private volatile boolean stopped;
+
+        Coordinator(DistributedJob job, int chunkTimeoutMillis, Consumer<String> log) {
+            this.job = job;
+            this.chunkTimeoutMillis = chunkTimeoutMillis;
+            this.log = log;
+            results = new RiskAccumulator[job.chunks()];
+            for (int c = 0; c < results.length; c++) pending.add(c);
+            done = new CountDownLatch(results.length);
+        }
+
+        /**
+         * Serves workers on server until every chunk is in, then closes it and returns the merged result.
+         * Fails if no chunk completes for idleTimeoutMillis, e.g. because every worker has died.
+         */
+        RiskAccumulator run(ServerSocket server, long idleTimeoutMillis) throws IOException, InterruptedException {
+            Thread acceptor = new Thread(() -> accept(server), "coordinator-accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            try {
+                long outstanding = done.getCount();
+                while (!done.await(idleTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    if (done.getCount() == outstanding) {
+                        throw new IOException("No chunk completed in " + idleTimeoutMillis + " ms; " + outstanding + " of "
+                                + results.length + " chunks outstanding after " + lost.get() + " worker(s) lost");
+                    }
+                    outstanding = done.getCount();
+                }
+            } finally {
+                stopped = true;
+                try { server.close(); } catch (IOException ignored) { }
+            }
+            RiskAccumulator total = new RiskAccumulator(job.levels);
+            for (RiskAccumulator r : results) total.merge(r);
+            return total;
+        }
+
+        /** Chunks that had to be handed out again after a worker was lost. */
+        int requeuedChunks() { return requeued.get(); }
+
+        /** Workers that have connected so far. */
+        int connectedWorkers() { return connected.get(); }
+
+        /** Workers that disconnected or timed out before the job finished. */
+        int lostWorkers() { return lost.get(); }
+
+        private void accept(ServerSocket server) {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread t = new Thread(() -> serve(socket), "coordinator-" + socket.getPort());
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException ex) {
+                    return; // closed once every chunk is in
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            String name = socket.getRemoteSocketAddress().toString();
+            int chunk = -1, served = 0;
+            try (Socket s = socket;
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+                s.setSoTimeout(chunkTimeoutMillis);
+                s.setTcpNoDelay(true);
+                out.writeInt(MAGIC);
+                job.writeTo(out);
+                out.flush();
+                connected.incrementAndGet();
+                log.accept("worker " + name + " connected");
+                while (!stopped && done.getCount() > 0) {
+                    Integer next = pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (next == null) continue;
+                    chunk = next;
+                    out.writeByte(CHUNK);
+                    out.writeInt(chunk);
+                    out.flush();
+                    if (in.readByte() != RESULT || in.readInt() != chunk) throw new IOException("Protocol error");
+                    complete(chunk, RiskAccumulator.readFrom(in));
+                    chunk = -1;
+                    served++;
+                }
+                out.writeByte(END);
+                out.flush();
+                log.accept("worker " + name + " finished after " + served + " chunks");
+            } catch (IOException | InterruptedException ex) {
+                if (chunk >= 0) {
+                    pending.addFirst(chunk);
+                    requeued.incrementAndGet();
+                }
+                lost.incrementAndGet();
+                log.accept("worker " + name + " lost after " + served + " chunks (" + (ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName()) + ")"
+                        + (chunk >= 0 ? ", chunk " + chunk + " requeued" : ""));
+            }
+        }
+
+        private synchronized void complete(int chunk, RiskAccumulator r) {
+            if (results[chunk] != null) return;
+            results[chunk] = r;
+            done.countDown();
+        }
+    }
+
+    /**
+     * Worker side: computes chunks until END. failAfter >= 0 halts the JVM on receiving that chunk
+     * (for testing), after telling log.
+     */
+    static void runWorker(String host, int port, int failAfter, Consumer<String> log) throws IOException {
+        try (Socket s = new Socket(host, port);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            if (in.readInt() != Coordinator.MAGIC) throw new IOException("Not a portfolio coordinator: " + host + ":" + port);
+            DistributedJob job = DistributedJob.readFrom(in);
+            MonteCarloEngine engine = new MonteCarloEngine();
+            for (int served = 0; ; served++) {
+                byte type = in.readByte();
+                if (type == Coordinator.END) break;
+                if (type != Coordinator.CHUNK) throw new IOException("Unexpected message " + type);
+                int chunk = in.readInt();
+                if (served == failAfter) {
+                    log.accept("worker " + ProcessHandle.current().pid() + " halting on chunk " + chunk + " as requested");
+                    Runtime.getRuntime().halt(3);
+                }
+                RiskAccumulator r = job.runChunk(engine, chunk);
+                out.writeByte(Coordinator.RESULT);
+                out.writeInt(chunk);
+                r.writeTo(out);
+                out.flush();
+            }
+        }
+    }
+
+    // ====== Memory-mapped path file ======
+    /**
+     * Binary file of full simulated paths, written through memory mappings so neither writer nor
+     * reader holds periods x paths doubles on the heap.
+     *
+     * Layout (all little-endian):
+     *   header, 64 bytes: long magic "PFPATHS1", int version, int headerBytes, int columns
+     *   (periods + 1), int reserved, long paths, long seed, double initialValue, 16 bytes zero;
+     *   then one column per period t = 0..periods, each holding the value of every path at t:
+     *   value(path i, period t) is the double at headerBytes + (t * paths + i) * 8.
+     * Columns make per-period cross sections (fan charts, quantiles) a single sequential read.
+     */
+    static final class PathFile {
+        static final long MAGIC = 0x3153485441504650L; // "PFPATHS1" read as a little-endian long
+        static final int VERSION = 1;
+        static final int HEADER_BYTES = 64;
+        /** Bytes per mapping; a multiple of 8 so doubles never straddle two segments. */
+        static final long SEGMENT_BYTES = 1L << 30;
+
+        private PathFile() { }
+
+        /**
+         * Simulate paths straight into file. Each engine block buffers its 1024 paths column-wise
+         * and bulk-copies each column slice into its own disjoint region of the mapping.
+         */
+        static void write(MonteCarloEngine engine, CompiledPortfolio cp, int periods, double initialValue,
+                          long seed, long paths, Path file) throws IOException {
+            int columns = periods + 1;
+            long size = HEADER_BYTES + (long) columns * paths * Double.BYTES;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer[] segments = map(ch, FileChannel.MapMode.READ_WRITE, size);
+                MappedByteBuffer head = segments[0];
+                head.putLong(0, MAGIC).putInt(8, VERSION).putInt(12, HEADER_BYTES).putInt(16, columns).putInt(20, 0)
+                        .putLong(24, paths).putLong(32, seed).putDouble(40, initialValue);
+                DoubleBuffer[] views = doubleViews(segments);
+                engine.run(cp, periods, initialValue, seed, paths, () -> new BlockWriter(views, columns, paths), (a, b) -> a);
+                for (MappedByteBuffer seg : segments) seg.force();
+            }
+        }
+
+        private static MappedByteBuffer[] map(FileChannel ch, FileChannel.MapMode mode, long size) throws IOException {
+            int n = (int) ((size + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+            MappedByteBuffer[] segments = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long start = i * SEGMENT_BYTES;
+                segments[i] = ch.map(mode, start, Math.min(SEGMENT_BYTES, size - start));
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return segments;
+        }
+
+        private static DoubleBuffer[] doubleViews(MappedByteBuffer[] segments) {
+            DoubleBuffer[] views = new DoubleBuffer[segments.length];
+            for (int i = 0; i < segments.length; i++) views[i] = segments[i].asDoubleBuffer();
+            return views;
+        }
+
+        /** Absolute bulk copy between a file-wide double index range and an array, across segments. */
+        private static void transfer(DoubleBuffer[] views, long index, double[] data, int off, int len, boolean write) {
+            final long perSegment = SEGMENT_BYTES / Double.BYTES;
+            while (len > 0) {
+                DoubleBuffer view = views[(int) (index / perSegment)];
+                int pos = (int) (index % perSegment);
+                int n = Math.min(len, view.limit() - pos);
+                if (write) view.put(pos, data, off, n);
+                else view.get(pos, data, off, n);
+                index += n; off += n; len -= n;
+            }
+        }
+
+        /** Per-block accumulator: buffers one block column-wise, flushes when its last path arrives. */
+        private static final class BlockWriter implements MonteCarloEngine.PathVisitor {
+            private final DoubleBuffer[] views;
+            private final long paths;
+            private final double[][] cols;
+            private long first = -1;
+            private int count;
+
+            BlockWriter(DoubleBuffer[] views, int columns, long paths) {
+                this.views = views;
+                this.paths = paths;
+                this.cols = new double[columns][MonteCarloEngine.BLOCK_SIZE];
+            }
+
+            @Override
+            public void visit(long pathIndex, double[] path) {
+                if (first < 0) first = pathIndex;
+                for (int t = 0; t < cols.length; t++) cols[t][count] = path[t];
+                count++;
+                if (count == MonteCarloEngine.BLOCK_SIZE || pathIndex == paths - 1) {
+                    long base = HEADER_BYTES / Double.BYTES;
+                    for (int t = 0; t < cols.length; t++) transfer(views, base + t * paths + first, cols[t], 0, count, true);
+                    first = -1;
+                    count = 0;
+                }
+            }
+        }
+
+        /** Random-access reader; the OS pages in only the parts of the file that are touched. */
+        static final class Reader implements Closeable {
+            private final FileChannel ch;
+            private final DoubleBuffer[] views;
+            private final int columns;
+            private final long paths, seed;
+            private final double initialValue;
+
+            Reader(Path file) throws IOException {
+                ch = FileChannel.open(file, StandardOpenOption.READ);
+                MappedByteBuffer[] segments = map(ch, FileChannel.MapMode.READ_ONLY, ch.size());
+                MappedByteBuffer head = segments[0];
+                if (ch.size() < HEADER_BYTES || head.getLong(0) != MAGIC) throw new IOException("Not a path file: " + file);
+                if (head.getInt(8) != VERSION || head.getInt(12) != HEADER_BYTES) throw new IOException("Unsupported path file version " + head.getInt(8));
+                columns = head.getInt(16);
+                paths = head.getLong(24);
+                seed = head.getLong(32);
+                initialValue = head.getDouble(40);
+                if (ch.size() != HEADER_BYTES + (long) columns * paths * Double.BYTES) throw new IOException("Truncated path file: " + file);
+                views = doubleViews(segments);
+            }
+
+            public int periods() { return columns - 1; }
+            public long paths() { return paths; }
+            public long seed() { return seed; }
+            public double initialValue() { return initialValue; }
+
+            /** Values of paths [from, from + out.length) at period t. */
+            public void readColumn(int t, long from, double[] out) {
+                transfer(views, HEADER_BYTES / Double.BYTES + t * paths + from, out, 0, out.length, false);
+            }
+
+            /** One page of whole paths: out[i] receives path from + i (length periods + 1). */
+            public void readPaths(long from, double[][] out) {
+                double[] col = new double[out.length];
+                for (int t = 0; t < columns; t++) {
+                    readColumn(t, from, col);
+                    for (int i = 0; i < out.length; i++) out[i][t] = col[i];
+                }
+            }
+
+            @Override
+            public void close() throws IOException { ch.close(); }
+        }
+    }
+
+    // ====== Scenario grid ======
+    /**
+     * A named set of parameter overrides, written one scenario per line:
+     * <pre>
+     *   name  key=value  key=value ...
+     * </pre>
+     * Keys: weight:SYM (raw weight, then all weights are renormalized), drift:SYM and vol:SYM
+     * (a Stock and every Derivative on it), volScale (all Stock/Derivative vols), rateVol:SYM and
+     * rateVolScale (Bond rate-shock vol), leverage:SYM (Derivative). '#' starts a comment.
+     */
+    static final class Scenario {
+        final String name;
+        final Map<String, Double> overrides;
+
+        Scenario(String name, Map<String, Double> overrides) {
+            this.name = name;
+            this.overrides = new TreeMap<>(overrides);
+        }
+
+        static List<Scenario> parse(List<String> lines) {
+            List<Scenario> out = new ArrayList<>();
+            for (String raw : lines) {
+                String line = raw.contains("#") ? raw.substring(0, raw.indexOf('#')) : raw;
+                String[] tok = line.trim().split("\\s+");
+                if (tok[0].isEmpty()) continue;
+                Map<String, Double> ov = new LinkedHashMap<>();
+                for (int i = 1; i < tok.length; i++) {
+                    int eq = tok[i].indexOf('=');
+                    if (eq <= 0) throw new IllegalArgumentException("Scenario " + tok[0] + ": expected key=value, got " + tok[i]);
+                    ov.put(tok[i].substring(0, eq), Double.parseDouble(tok[i].substring(eq + 1)));
+                }
+                out.add(new Scenario(tok[0], ov));
+            }
+            return out;
+        }
+
+        /** Canonical text of the overrides (sorted keys). */
+        String definition() { return overrides.toString(); }
+
+        CompiledPortfolio apply(CompiledPortfolio base) {
+            CompiledPortfolio c = base.copyParameters();
+            boolean reweight = false;
+            for (Map.Entry<String, Double> e : overrides.entrySet()) {
+                String key = e.getKey();
+                double v = e.getValue();
+                int colon = key.indexOf(':');
+                String kind = colon < 0 ? key : key.substring(0, colon);
+                int idx = colon < 0 ? -1 : c.indexOf(key.substring(colon + 1));
+                switch (kind) {
+                    case "weight":
+                        c.weight[idx] = v;
+                        reweight = true;
+                        break;
+                    case "drift":
+                    case "vol":
+                        if (c.typeCode[idx] != CompiledPortfolio.STOCK) throw new IllegalArgumentException(key + ": not a Stock");
+                        for (int i = 0; i < c.size(); i++) {
+                            if (c.driver[i] == c.driver[idx] && c.typeCode[i] != CompiledPortfolio.BOND) {
+                                if (kind.equals("vol")) c.vol[i] = v; else c.drift[i] = v;
+                            }
+                        }
+                        break;
+                    case "volScale":
+                        for (int i = 0; i < c.size(); i++) if (c.typeCode[i] != CompiledPortfolio.BOND) c.vol[i] *= v;
+                        break;
+                    case "rateVol":
+                        if (c.typeCode[idx] != CompiledPortfolio.BOND) throw new IllegalArgumentException(key + ": not a Bond");
+                        c.vol[idx] = v;
+                        break;
+                    case "rateVolScale":
+                        for (int i = 0; i < c.size(); i++) if (c.typeCode[i] == CompiledPortfolio.BOND) c.vol[i] *= v;
+                        break;
+                    case "leverage":
+                        if (c.typeCode[idx] != CompiledPortfolio.DERIVATIVE) throw new IllegalArgumentException(key + ": not a Derivative");
+                        c.leverage[idx] = v;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Scenario " + name + ": unknown key " + key);
+                }
+            }
+            if (reweight) {
+                double sum = 0.0;
+                for (double w : c.weight) sum += w;
+                if (sum <= 0.0) throw new IllegalArgumentException("Scenario " + name + ": weights must sum to > 0");
+                for (int i = 0; i < c.size(); i++) c.weight[i] /= sum;
+            }
+            return c.rebuild(base.model);
+        }
+    }
+
+    /** Summary of one scenario; differences are against the first scenario on the same paths. */
+    static final class ScenarioResult {
+        final String name;
+        final double mean, stdDev, var95, cvar95, meanDrawdown, diffMean, diffStdError;
+        final boolean cached;
+
+        ScenarioResult(String name, double mean, double stdDev, double var95, double cvar95, double meanDrawdown,
+                       double diffMean, double diffStdError, boolean cached) {
+            this.name = name; this.mean = mean; this.stdDev = stdDev; this.var95 = var95; this.cvar95 = cvar95;
+            this.meanDrawdown = meanDrawdown; this.diffMean = diffMean; this.diffStdError = diffStdError; this.cached = cached;
+        }
+
+        String toCacheLine() {
+            return mean + " " + stdDev + " " + var95 + " " + cvar95 + " " + meanDrawdown + " " + diffMean + " " + diffStdError;
+        }
+
+        static ScenarioResult fromCacheLine(String name, String line) {
+            String[] f = line.trim().split(" ");
+            return new ScenarioResult(name, Double.parseDouble(f[0]), Double.parseDouble(f[1]), Double.parseDouble(f[2]),
+                    Double.parseDouble(f[3]), Double.parseDouble(f[4]), Double.parseDouble(f[5]), Double.parseDouble(f[6]), true);
+        }
+    }
+
+    /**
+     * Runs a scenario grid with common random numbers: every path draws its shocks once and each
+     * scenario is evaluated on those same shocks, so scenario differences are paired and the noise
+     * largely cancels. Work is split on the Monte Carlo engine's blocks; results are cached under
+     * cacheDir keyed by a hash of the applied parameters and run settings.
+     */
+    static final class ScenarioRunner {
+        private final ForkJoinPool pool;
+        private final Path cacheDir;
+
+        ScenarioRunner(ForkJoinPool pool, Path cacheDir) {
+            this.pool = pool;
+            this.cacheDir = cacheDir;
+        }
+
+        public List<ScenarioResult> run(CompiledPortfolio base, List<Scenario> scenarios, int periods, double initialValue,
+                                        long seed, long paths) throws IOException {
+            if (scenarios.isEmpty()) return new ArrayList<>();
+            CompiledPortfolio[] applied = new CompiledPortfolio[scenarios.size()];
+            String[] keys = new String[applied.length];
+            for (int s = 0; s < applied.length; s++) applied[s] = scenarios.get(s).apply(base);
+            String settings = periods + "|" + initialValue + "|" + seed + "|" + paths + "|" + applied[0].fingerprint();
+            for (int s = 0; s < applied.length; s++) keys[s] = sha256(settings + "|" + applied[s].fingerprint());
+
+            ScenarioResult[] results = new ScenarioResult[applied.length];
+            boolean missing = false;
+            for (int s = 0; s < applied.length; s++) {
+                Path f = cacheDir.resolve(keys[s] + ".txt");
+                if (Files.exists(f)) results[s] = ScenarioResult.fromCacheLine(scenarios.get(s).name, Files.readString(f));
+                else missing = true;
+            }
+            if (missing) {
+                long blocks = (paths + MonteCarloEngine.BLOCK_SIZE - 1) / MonteCarloEngine.BLOCK_SIZE;
+                GridStats stats = pool.invoke(new GridTask(applied, periods, initialValue, seed, paths, 0, blocks));
+                Files.createDirectories(cacheDir);
+                for (int s = 0; s < applied.length; s++) {
+                    if (results[s] != null) continue;
+                    RiskAccumulator r = stats.risk[s];
+                    RunningStats d = stats.diff[s];
+                    results[s] = new ScenarioResult(scenarios.get(s).name, r.terminal().mean(), r.terminal().stdDev(),
+                            r.valueAtRisk(0.95), r.conditionalValueAtRisk(0.95), r.maxDrawdown().mean(),
+                            d.mean(), d.stdDev() / Math.sqrt(d.count()), false);
+                    Files.writeString(cacheDir.resolve(keys[s] + ".txt"), results[s].toCacheLine() + "\n");
+                }
+            }
+            return Arrays.asList(results);
+        }
+
+        static void writeTable(List<ScenarioResult> results, Appendable out) throws IOException {
+            out.append(String.format("  %-18s %14s %12s %8s %8s %8s %14s %10s  %s%n", "scenario", "mean", "std dev",
+                    "VaR95", "CVaR95", "mean DD", "vs first", "+/- SE", ""));
+            for (ScenarioResult r : results) {
+                out.append(String.format("  %-18s %,14.2f %,12.2f %7.2f%% %7.2f%% %7.2f%% %+,14.2f %,10.2f  %s%n", r.name, r.mean,
+                        r.stdDev, r.var95 * 100, r.cvar95 * 100, r.meanDrawdown * 100, r.diffMean, r.diffStdError,
+                        r.cached ? "(cached)" : ""));
+            }
+        }
+
+        static void writeCsv(List<ScenarioResult> results, Path file) throws IOException {
+            StringBuilder sb = new StringBuilder("scenario,mean,std_dev,var95,cvar95,mean_drawdown,diff_mean,diff_std_error\n");
+            for (ScenarioResult r : results) {
+                sb.append(r.name).append(',').append(r.mean).append(',').append(r.stdDev).append(',').append(r.var95).append(',')
+                        .append(r.cvar95).append(',').append(r.meanDrawdown).append(',').append(r.diffMean).append(',')
+                        .append(r.diffStdError).append('\n');
+            }
+            Files.writeString(file, sb);
+        }
+
+        private static String sha256(String text) {
+            try {
+                byte[] h = java.security.MessageDigest.getInstance("SHA-256").digest(text.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < 16; i++) sb.append(String.format("%02x", h[i]));
+                return sb.toString();
+            } catch (java.security.NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        private static final class GridStats {
+            final RiskAccumulator[] risk;
+            final RunningStats[] diff;
+
+            GridStats(int n) {
+                risk = new RiskAccumulator[n];
+                diff = new RunningStats[n];
+                for (int s = 0; s < n; s++) { risk[s] = new RiskAccumulator(0.95); diff[s] = new RunningStats(); }
+            }
+
+            GridStats merge(GridStats o) {
+                for (int s = 0; s < risk.length; s++) { risk[s].merge(o.risk[s]); diff[s].merge(o.diff[s]); }
+                return this;
+            }
+        }
+
+        private static final class GridTask extends RecursiveTask<GridStats> {
+            private static final long serialVersionUID = 1L;
+
+            private final CompiledPortfolio[] scenarios;
+            private final int periods;
+            private final double initialValue;
+            private final long seed, paths, from, to;
+
+            GridTask(CompiledPortfolio[] scenarios, int periods, double initialValue, long seed, long paths, long from, long to) {
+                this.scenarios = scenarios; this.periods = periods; this.initialValue = initialValue;
+                this.seed = seed; this.paths = paths; this.from = from; this.to = to;
+            }
+
+            @Override
+            protected GridStats compute() {
+                if (to - from > 1) {
+                    long mid = (from + to) >>> 1;
+                    GridTask right = new GridTask(scenarios, periods, initialValue, seed, paths, mid, to);
+                    right.fork();
+                    GridStats l = new GridTask(scenarios, periods, initialValue, seed, paths, from, mid).compute();
+                    return l.merge(right.join());
+                }
+                GridStats acc = new GridStats(scenarios.length);
+                double[] shocks = new double[periods * scenarios[0].shockCount()];
+                double[] values = new double[periods + 1];
+                SplittableRandom rng = MonteCarloEngine.blockRandom(seed, from);
+                long end = Math.min(paths, (from + 1) * MonteCarloEngine.BLOCK_SIZE);
+                for (long i = from * MonteCarloEngine.BLOCK_SIZE; i < end; i++) {
+                    NormalGenerator.fill(rng, shocks, 0, shocks.length);
+                    double reference = 0.0;
+                    for (int s = 0; s < scenarios.length; s++) {
+                        scenarios[s].simulatePath(shocks, initialValue, values);
+                        acc.risk[s].visit(i, values);
+                        if (s == 0) reference = values[periods];
+                        acc.diff[s].add(values[periods] - reference);
+                    }
+                }
+                return acc;
+            }
+        }
+    }
+
+    // ====== Cached return cube ======
+    /**
+     * Per-instrument, per-period returns of a simulation run, kept so that changing only the
+     * weights is a matrix-vector product per period instead of a resimulation. Returns are
+     * stored in blocks of {@link MonteCarloEngine#BLOCK_SIZE} paths laid out
+     * [period][holding][path], so each period's reweighting is a run of contiguous
+     * multiply-adds over paths. Shocks are drawn exactly as the engine draws them, so the cube
+     * reproduces {@link MonteCarloEngine#terminalValues} for the original weights.
+     */
+    static final class ReturnCube {
+        private final int periods, holdings;
+        private final long paths;
+        private final double[][] blocks;
+        private final ForkJoinPool pool;
+
+        private ReturnCube(ForkJoinPool pool, int periods, int holdings, long paths) {
+            this.pool = pool;
+            this.periods = periods;
+            this.holdings = holdings;
+            this.paths = paths;
+            this.blocks = new double[(int) ((paths + MonteCarloEngine.BLOCK_SIZE - 1) / MonteCarloEngine.BLOCK_SIZE)][];
+        }
+
+        static ReturnCube build(ForkJoinPool pool, Portfolio pf, int periods, long seed, long paths) {
+            CompiledPortfolio cp = CompiledPortfolio.compile(pf);
+            ReturnCube cube = new ReturnCube(pool, periods, cp.size(), paths);
+            pool.invoke(new BlockAction(0, cube.blocks.length, b -> cube.fillBlock(cp, seed, b)));
+            return cube;
+        }
+
+        public int periods() { return periods; }
+        public int holdings() { return holdings; }
+        public long paths() { return paths; }
+
+        private int blockPaths(int b) {
+            return (int) Math.min(MonteCarloEngine.BLOCK_SIZE, paths - (long) b * MonteCarloEngine.BLOCK_SIZE);
+        }
+
+        private void fillBlock(CompiledPortfolio cp, long seed, int b) {
+            int count = blockPaths(b);
+            double[] data = new double[periods * holdings * count];
+            double[] e = new double[cp.shockCount()], z = new double[cp.model.dimension()], r = new double[holdings];
+            SplittableRandom rng = MonteCarloEngine.blockRandom(seed, b);
+            for (int p = 0; p < count; p++) {
+                for (int t = 0; t < periods; t++) {
+                    NormalGenerator.fill(rng, e, 0, e.length);
+                    cp.evaluateReturns(e, z, r);
+                    int base = t * holdings * count + p;
+                    for (int i = 0; i < holdings; i++) data[base + i * count] = r[i];
+                }
+            }
+            blocks[b] = data;
+        }
+
+        /** Return of instrument i in period t (1-based) of path p. */
+        public double instrumentReturn(long p, int t, int i) {
+            int b = (int) (p / MonteCarloEngine.BLOCK_SIZE), count = blockPaths(b);
+            return blocks[b][((t - 1) * holdings + i) * count + (int) (p % MonteCarloEngine.BLOCK_SIZE)];
+        }
+
+        /** Terminal values for new raw weights (normalized here, nothing is mutated). */
+        public MonteCarloResult reweight(double[] rawWeights, double initialValue) {
+            double[] w = normalize(rawWeights);
+            double[] out = new double[(int) paths];
+            pool.invoke(new BlockAction(0, blocks.length, b -> {
+                int count = blockPaths(b);
+                double[] v = new double[count];
+                evaluateBlock(b, w, initialValue, v, null);
+                System.arraycopy(v, 0, out, b * MonteCarloEngine.BLOCK_SIZE, count);
+            }));
+            return new MonteCarloResult(out);
+        }
+
+        /** Full reweighted paths through a map-reduce, e.g. a RiskAccumulator. */
+        public <A extends MonteCarloEngine.PathVisitor> A reweight(double[] rawWeights, double initialValue,
+                                                                 Supplier<A> factory, BinaryOperator<A> combine) {
+            double[] w = normalize(rawWeights);
+            return pool.invoke(new RecursiveTask<A>() {
+                @Override
+                protected A compute() { return visitBlocks(0, blocks.length); }
+
+                private A visitBlocks(int from, int to) {
+                    if (to - from > 1) {
+                        int mid = (from + to) >>> 1;
+                        RecursiveTask<A> right = new RecursiveTask<A>() {
+                            @Override
+                            protected A compute() { return visitBlocks(mid, to); }
+                        };
+                        right.fork();
+                        A l = visitBlocks(from, mid);
+                        return combine.apply(l, right.join());
+                    }
+                    A acc = factory.get();
+                    int count = blockPaths(from);
+                    double[][] cols = new double[periods + 1][count];
+                    evaluateBlock(from, w, initialValue, cols[periods], cols);
+                    double[] path = new double[periods + 1];
+                    for (int p = 0; p < count; p++) {
+                        for (int t = 0; t <= periods; t++) path[t] = cols[t][p];
+                        acc.visit((long) from * MonteCarloEngine.BLOCK_SIZE + p, path);
+                    }
+                    return acc;
+                }
+            });
+        }
+
+        /** v receives terminal values; cols, if given, receives every period's values. */
+        private void evaluateBlock(int b, double[] w, double initialValue, double[] v, double[][] cols) {
+            double[] data = blocks[b];
+            int count = blockPaths(b);
+            double[] ret = new double[count];
+            Arrays.fill(v, 0, count, initialValue);
+            if (cols != null) Arrays.fill(cols[0], initialValue);
+            for (int t = 0; t < periods; t++) {
+                Arrays.fill(ret, 0.0);
+                for (int i = 0; i < holdings; i++) {
+                    double wi = w[i];
+                    if (wi == 0.0) continue;
+                    int off = (t * holdings + i) * count;
+                    for (int p = 0; p < count; p++) ret[p] += wi * data[off + p];
+                }
+                for (int p = 0; p < count; p++) v[p] *= 1.0 + ret[p];
+                if (cols != null && t + 1 < periods) System.arraycopy(v, 0, cols[t + 1], 0, count);
+            }
+        }
+
+        private double[] normalize(double[] raw) {
+            if (raw.length != holdings) throw new IllegalArgumentException("Expected " + holdings + " weights, got " + raw.length);
+            double sum = 0.0;
+            for (double x : raw) sum += x;
+            if (sum == 0.0) throw new IllegalArgumentException("Sum of weights is zero.");
+            double[] w = new double[raw.length];
+            for (int i = 0; i < w.length; i++) w[i] = raw[i] / sum;
+            return w;
+        }
+    }
+
+    // ====== Mean-variance optimization ======
+    /**
+     * Per-period expected returns and covariance of a set of holdings; covariance is a flat
+     * row-major n x n array. Analytic moments also keep the factored form
+     * cov = diag(beta) S corr S' diag(beta) (S maps holdings to drivers), which multiplies in
+     * O(n + drivers^2), or O(n) when drivers are independent.
+     */
+    static final class MeanVariance {
+        final int n;
+        final String[] symbols;
+        final double[] mean;
+        final double[] cov;
+        private double[] beta, driverCorr; // factored form, null for sample estimates; driverCorr null = identity
+        private int[] driver;
+        private int drivers;
+
+        MeanVariance(String[] symbols, double[] mean, double[] cov) {
+            this.n = symbols.length; this.symbols = symbols; this.mean = mean; this.cov = cov;
+        }
+
+        double variance(int i) { return cov[i * n + i]; }
+
+        /**
+         * Closed form from the affine models: E[r_i] = alpha_i and
+         * cov(r_i, r_j) = beta_i beta_j corr(driver_i, driver_j). Rows are filled in parallel.
+         */
+        static MeanVariance analytic(ForkJoinPool pool, Portfolio pf) {
+            CompiledPortfolio cp = CompiledPortfolio.compile(pf);
+            int n = cp.size(), d = cp.model.dimension();
+            double[] corr = cp.model.correlationMatrix();
+            double[] cov = new double[n * n];
+            pool.invoke(new BlockAction(0, n, i -> {
+                int row = cp.driver[i] * d;
+                double bi = cp.beta[i];
+                for (int j = 0; j < n; j++) cov[i * n + j] = bi * cp.beta[j] * corr[row + cp.driver[j]];
+            }));
+            MeanVariance mv = new MeanVariance(cp.symbols.clone(), cp.alpha.clone(), cov);
+            mv.beta = cp.beta.clone();
+            mv.driver = cp.driver.clone();
+            mv.drivers = d;
+            mv.driverCorr = cp.model instanceof IndependentShocks ? null : corr;
+            return mv;
+        }
+
+        /** Sample estimate over every (path, period) of a return cube. */
+        static MeanVariance fromCube(ForkJoinPool pool, ReturnCube cube, String[] symbols) {
+            int n = cube.holdings();
+            double[][] sums = new double[cube.blocks.length][];
+            double[][] cross = new double[cube.blocks.length][];
+            pool.invoke(new BlockAction(0, cube.blocks.length, b -> {
+                double[] data = cube.blocks[b];
+                int count = cube.blockPaths(b);
+                double[] s1 = new double[n], s2 = new double[n * n];
+                for (int t = 0; t < cube.periods(); t++) {
+                    int base = t * n * count;
+                    for (int i = 0; i < n; i++) {
+                        int oi = base + i * count;
+                        for (int p = 0; p < count; p++) s1[i] += data[oi + p];
+                        for (int j = 0; j <= i; j++) {
+                            int oj = base + j * count;
+                            double sum = 0.0;
+                            for (int p = 0; p < count; p++) sum += data[oi + p] * data[oj + p];
+                            s2[i * n + j] += sum;
+                        }
+                    }
+                }
+                sums[b] = s1;
+                cross[b] = s2;
+            }));
+            double samples = (double) cube.paths() * cube.periods();
+            double[] mean = new double[n], cov = new double[n * n];
+            for (int b = 0; b < sums.length; b++) {
+                for (int i = 0; i < n; i++) mean[i] += sums[b][i];
+                for (int i = 0; i < n * n; i++) cov[i] += cross[b][i];
+            }
+            for (int i = 0; i < n; i++) mean[i] /= samples;
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j <= i; j++) {
+                    double c = (cov[i * n + j] - samples * mean[i] * mean[j]) / (samples - 1);
+                    cov[i * n + j] = cov[j * n + i] = c;
+                }
+            }
+            return new MeanVariance(symbols, mean, cov);
+        }
+
+        /** out = cov * w: factored form when available, else dense rows with four accumulators. */
+        void multiply(double[] w, double[] out) {
+            if (beta != null) {
+                double[] u = new double[drivers];
+                for (int i = 0; i < n; i++) u[driver[i]] += beta[i] * w[i];
+                double[] v = u;
+                if (driverCorr != null) {
+                    v = new double[drivers];
+                    for (int a = 0; a < drivers; a++) {
+                        double sum = 0.0;
+                        for (int b = 0, row = a * drivers; b < drivers; b++) sum += driverCorr[row + b] * u[b];
+                        v[a] = sum;
+                    }
+                }
+                for (int i = 0; i < n; i++) out[i] = beta[i] * v[driver[i]];
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                int row = i * n, j = 0;
+                double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+                for (; j + 3 < n; j += 4) {
+                    s0 += cov[row + j] * w[j];
+                    s1 += cov[row + j + 1] * w[j + 1];
+                    s2 += cov[row + j + 2] * w[j + 2];
+                    s3 += cov[row + j + 3] * w[j + 3];
+                }
+                for (; j < n; j++) s0 += cov[row + j] * w[j];
+                out[i] = (s0 + s1) + (s2 + s3);
+            }
+        }
+
+        double expectedReturn(double[] w) {
+            double sum = 0.0;
+            for (int i = 0; i < n; i++) sum += mean[i] * w[i];
+            return sum;
+        }
+
+        double variance(double[] w) {
+            double[] cw = new double[n];
+            multiply(w, cw);
+            double sum = 0.0;
+            for (int i = 0; i < n; i++) sum += w[i] * cw[i];
+            return Math.max(0.0, sum);
+        }
+    }
+
+    static final class FrontierPoint {
+        final double lambda;
+        final double[] weights;
+        final double expectedReturn, volatility, sharpe;
+        final int iterations;
+
+        FrontierPoint(double lambda, double[] weights, double expectedReturn, double volatility, double riskFree, int iterations) {
+            this.lambda = lambda; this.weights = weights; this.expectedReturn = expectedReturn; this.volatility = volatility;
+            this.sharpe = volatility > 0 ? (expectedReturn - riskFree) / volatility : Double.NaN;
+            this.iterations = iterations;
+        }
+    }
+
+    /**
+     * Long-only, fully invested mean-variance frontier: for each lambda, minimize
+     * 0.5 w'Cw - lambda mu'w over the simplex with FISTA (accelerated projected gradient with
+     * adaptive restart). Variances span several orders of magnitude (bonds vs levered
+     * derivatives), so the gradient step is Jacobi-preconditioned by D = diag(C) and the
+     * projection is taken in the D-norm; the step is 1/L for L the largest eigenvalue of
+     * D^-1/2 C D^-1/2. Lambda = 0 is the minimum-variance portfolio. Frontier points are solved
+     * in parallel. A closed-form unconstrained solution is not offered: a Derivative and its
+     * underlying are perfectly correlated, so C is typically singular.
+     */
+    static final class FrontierOptimizer {
+        private final ForkJoinPool pool;
+        private final int maxIterations;
+        private final double tolerance;
+
+        FrontierOptimizer(ForkJoinPool pool) { this(pool, 20_000, 1e-9); }
+
+        FrontierOptimizer(ForkJoinPool pool, int maxIterations, double tolerance) {
+            this.pool = pool;
+            this.maxIterations = maxIterations;
+            this.tolerance = tolerance;
+        }
+
+        public List<FrontierPoint> frontier(MeanVariance mv, int points, double riskFree) {
+            double lipschitz = largestEigenvalue(mv);
+            double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY, maxVar = 0.0;
+            for (double m : mv.mean) { lo = Math.min(lo, m); hi = Math.max(hi, m); }
+            for (int i = 0; i < mv.n; i++) maxVar = Math.max(maxVar, mv.variance(i));
+            // Once lambda * (mean spread) exceeds the largest variance the solution sits at the max-mean corner.
+            double scale = maxVar / Math.max(1e-12, hi - lo);
+            double[] lambdas = new double[points];
+            for (int k = 1; k < points; k++) lambdas[k] = scale * Math.pow(10, -5 + 6.0 * (k - 1) / Math.max(1, points - 2));
+            FrontierPoint[] out = new FrontierPoint[points];
+            pool.invoke(new BlockAction(0, points, k -> out[k] = solve(mv, lambdas[k], lipschitz, riskFree)));
+            return Arrays.asList(out);
+        }
+
+        /** Best Sharpe ratio on the frontier, refined by golden-section search in log(lambda). */
+        public FrontierPoint maxSharpe(MeanVariance mv, List<FrontierPoint> frontier, double riskFree) {
+            double lipschitz = largestEigenvalue(mv);
+            int best = 1;
+            for (int k = 1; k < frontier.size(); k++) if (frontier.get(k).sharpe > frontier.get(best).sharpe) best = k;
+            double a = Math.log(frontier.get(Math.max(1, best - 1)).lambda);
+            double b = Math.log(frontier.get(Math.min(frontier.size() - 1, best + 1)).lambda);
+            FrontierPoint bestPoint = frontier.get(best);
+            final double g = (Math.sqrt(5) - 1) / 2;
+            double c = b - g * (b - a), d = a + g * (b - a);
+            FrontierPoint pc = solve(mv, Math.exp(c), lipschitz, riskFree), pd = solve(mv, Math.exp(d), lipschitz, riskFree);
+            for (int it = 0; it < 30; it++) {
+                if (pc.sharpe > pd.sharpe) { b = d; d = c; pd = pc; c = b - g * (b - a); pc = solve(mv, Math.exp(c), lipschitz, riskFree); }
+                else { a = c; c = d; pc = pd; d = a + g * (b - a); pd = solve(mv, Math.exp(d), lipschitz, riskFree); }
+            }
+            FrontierPoint refined = pc.sharpe > pd.sharpe ? pc : pd;
+            return refined.sharpe > bestPoint.sharpe ? refined : bestPoint;
+        }
+
+        public FrontierPoint solve(MeanVariance mv, double lambda, double riskFree) {
+            return solve(mv, lambda, largestEigenvalue(mv), riskFree);
+        }
+
+        private FrontierPoint solve(MeanVariance mv, double lambda, double lipschitz, double riskFree) {
+            int n = mv.n;
+            double step = 1.0 / lipschitz;
+            double[] d = preconditioner(mv);
+            double[] x = new double[n], y = new double[n], next = new double[n], grad = new double[n];
+            Arrays.fill(x, 1.0 / n);
+            System.arraycopy(x, 0, y, 0, n);
+            double t = 1.0;
+            int it = 0;
+            for (; it < maxIterations; it++) {
+                mv.multiply(y, grad);
+                for (int i = 0; i < n; i++) next[i] = y[i] - step * (grad[i] - lambda * mv.mean[i]) / d[i];
+                projectToSimplex(next, d);
+                double tn = (1 + Math.sqrt(1 + 4 * t * t)) / 2, change = 0.0, restart = 0.0;
+                for (int i = 0; i < n; i++) {
+                    change = Math.max(change, Math.abs(next[i] - x[i]));
+                    restart += (y[i] - next[i]) * (next[i] - x[i]);
+                }
+                if (restart > 0) { // momentum points uphill: restart from the projected point
+                    tn = 1.0;
+                    System.arraycopy(next, 0, y, 0, n);
+                } else {
+                    for (int i = 0; i < n; i++) y[i] = next[i] + ((t - 1) / tn) * (next[i] - x[i]);
+                }
+                double[] swap = x; x = next; next = swap;
+                t = tn;
+                if (change < tolerance) break;
+            }
+            return new FrontierPoint(lambda, x, mv.expectedReturn(x), Math.sqrt(mv.variance(x)), riskFree, it + 1);
+        }
+
+        /** Jacobi preconditioner diag(C), floored so riskless holdings keep a finite step. */
+        static double[] preconditioner(MeanVariance mv) {
+            double max = 0.0;
+            for (int i = 0; i < mv.n; i++) max = Math.max(max, mv.variance(i));
+            double[] d = new double[mv.n];
+            for (int i = 0; i < mv.n; i++) d[i] = Math.max(mv.variance(i), max * 1e-8 + 1e-300);
+            return d;
+        }
+
+        /**
+         * Projection onto { w >= 0, sum w = 1 } in the norm sum d_i w_i^2: w_i = max(0, v_i - theta / d_i).
+         * Theta comes from Michelot's iteration: start with every holding active, recompute theta
+         * over the active set and drop holdings whose v_i d_i falls below it, until nothing changes.
+         * Each pass is O(n) and theta only increases, so a handful of passes suffice.
+         */
+        static void projectToSimplex(double[] v, double[] d) {
+            int n = v.length;
+            double theta = Double.NEGATIVE_INFINITY;
+            for (int pass = 0; pass <= n; pass++) {
+                double sumV = 0.0, sumInv = 0.0;
+                for (int i = 0; i < n; i++) {
+                    if (v[i] * d[i] > theta) { sumV += v[i]; sumInv += 1.0 / d[i]; }
+                }
+                double next = (sumV - 1.0) / sumInv;
+                if (next <= theta) break;
+                theta = next;
+            }
+            for (int i = 0; i < n; i++) v[i] = Math.max(0.0, v[i] - theta / d[i]);
+        }
+
+        static double largestEigenvalue(MeanVariance mv) {
+            // of D^-1/2 C D^-1/2, the operator the preconditioned step sees
+            double[] d = preconditioner(mv);
+            double[] v = new double[mv.n], u = new double[mv.n], w = new double[mv.n], s = new double[mv.n];
+            for (int i = 0; i < mv.n; i++) s[i] = 1.0 / Math.sqrt(d[i]);
+            Arrays.fill(v, 1.0 / Math.sqrt(mv.n));
+            double lambda = 0.0;
+            for (int it = 0; it < 50; it++) {
+                for (int i = 0; i < mv.n; i++) u[i] = v[i] * s[i];
+                mv.multiply(u, w);
+                for (int i = 0; i < mv.n; i++) w[i] *= s[i];
+                double norm = 0.0;
+                for (double x : w) norm += x * x;
+                norm = Math.sqrt(norm);
+                if (norm == 0.0) return 1e-12;
+                for (int i = 0; i < v.length; i++) v[i] = w[i] / norm;
+                lambda = norm;
+            }
+            return lambda * 1.05; // power iteration approaches from below
+        }
+    }
+
+    /** Built-in grid used when no scenario file is given. */
+    static final List<String> DEFAULT_SCENARIOS = Arrays.asList(
+            "base",
+            "tech-heavy      weight:TECH=0.7 weight:BOND10Y=0.1",
+            "defensive       weight:TECH=0.2 weight:BOND10Y=0.7 weight:LEV-TECH=0.1",
+            "vol-x0.5        volScale=0.5",
+            "vol-x1.5        volScale=1.5",
+            "vol-x2          volScale=2",
+            "rates-x10       rateVolScale=10",
+            "lev-1x          leverage:LEV-TECH=1",
+            "lev-3x          leverage:LEV-TECH=3",
+            "bear-market     drift:TECH=-0.01 volScale=1.5",
+            "stagflation     drift:TECH=0 rateVol:BOND10Y=0.005");
+
+    static Portfolio demoPortfolio() {
+        Stock techStock = new Stock("TECH", 0.50, 0.008, 0.05);
+        Bond govBond = new Bond("BOND10Y", 0.30, 0.004, 5.0, 0.0005);
+        Derivative leveredTech = new Derivative("LEV-TECH", 0.20, techStock, 2.0, 0.002);
+        return new Portfolio().add(techStock).add(govBond).add(leveredTech);
+    }
+
+    static void runMonteCarlo(int paths, long seed, int maxThreads) {
+        Portfolio pf = demoPortfolio();
+        int periods = 24;
+        double initial = 100_000.0;
+        DecimalFormat cur = new DecimalFormat("#,##0.00");
+
+        MonteCarloResult ref = null;
+        long baseNanos = 0;
+        System.out.printf("=== Monte Carlo: %,d paths x %d periods, seed %d ===%n", paths, periods, seed);
+        System.out.println("  threads      time    speedup   paths/s         mean");
+        int cores = maxThreads;
+        for (int threads = 1; threads <= cores; threads = threads < cores && threads * 2 > cores ? cores : threads * 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            MonteCarloEngine engine = new MonteCarloEngine(pool);
+            engine.terminalValues(pf, periods, initial, seed, Math.min(paths, 50_000)); // warm-up
+            long t0 = System.nanoTime();
+            MonteCarloResult r = engine.terminalValues(pf, periods, initial, seed, paths);
+            long nanos = System.nanoTime() - t0;
+            pool.shutdown();
+            if (ref == null) { ref = r; baseNanos = nanos; }
+            else if (!Arrays.equals(ref.getTerminalValues(), r.getTerminalValues())) throw new IllegalStateException("Result depends on thread count");
+            System.out.printf("  %7d  %7.0f ms  %7.2fx  %,10.0f  %s%n", threads, nanos / 1e6, (double) baseNanos / nanos, paths / (nanos / 1e9), cur.format(r.mean()));
+            if (threads == cores) break;
+        }
+        System.out.println("\n=== Terminal value distribution ===");
+        System.out.println("  Mean     : " + cur.format(ref.mean()));
+        System.out.println("  Std dev  : " + cur.format(ref.stdDev()));
+        System.out.println("  5%       : " + cur.format(ref.quantile(0.05)));
+        System.out.println("  Median   : " + cur.format(ref.quantile(0.50)));
+        System.out.println("  95%      : " + cur.format(ref.quantile(0.95)));
+    }
+
+    /** Risk job on the demo portfolio with a TECH/BOND10Y correlation, so a Cholesky model crosses the wire. */
+    static DistributedJob demoJob(long paths, long seed) {
+        Portfolio pf = demoPortfolio();
+        pf.setCorrelation("TECH", "BOND10Y", -0.3);
+        return new DistributedJob(CompiledPortfolio.compile(pf), 24, 100_000.0, seed, paths, 16, 0.95, 0.99, 0.999);
+    }
+
+    /** Coordinator for workers started elsewhere (java ... PortfolioSimulation worker host port). */
+    static void runCoordinator(int port, long paths, long seed) throws IOException, InterruptedException {
+        DistributedJob job = demoJob(paths, seed);
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.printf("=== Coordinator on port %d: %,d paths in %d chunks, waiting for workers ===%n", server.getLocalPort(), paths, job.chunks());
+            long t0 = System.nanoTime();
+            Coordinator coordinator = new Coordinator(job, 60_000, msg -> System.out.println("  " + msg));
+            printDistributedResult(coordinator.run(server, 600_000), coordinator, System.nanoTime() - t0);
+        }
+    }
+
+    /**
+     * Spawns local worker JVMs on the same classpath, the first of which dies part-way through, and
+     * checks the merged result against the same chunks computed in this JVM.
+     */
+    static void runDistributed(int workers, long paths, long seed) throws IOException, InterruptedException {
+        DistributedJob job = demoJob(paths, seed);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> procs = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(0)) {
+            int port = server.getLocalPort();
+            System.out.printf("=== Distributed risk: %,d paths in %d chunks, %d worker JVMs on port %d ===%n", paths, job.chunks(), workers, port);
+            for (int w = 0; w < workers; w++) {
+                procs.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), PortfolioSimulation.class.getName(),
+                        "worker", "localhost", String.valueOf(port), w == 0 && workers > 1 ? "2" : "-1").inheritIO().start());
+            }
+            long t0 = System.nanoTime();
+            Coordinator coordinator = new Coordinator(job, 60_000, msg -> System.out.println("  " + msg));
+            RiskAccumulator distributed = coordinator.run(server, 120_000);
+            long nanos = System.nanoTime() - t0;
+            printDistributedResult(distributed, coordinator, nanos);
+
+            RiskAccumulator local = job.runLocally(new MonteCarloEngine());
+            System.out.println("  identical to an in-process run of the same chunks: " + Arrays.equals(serialize(distributed), serialize(local)));
+        } finally {
+            for (Process p : procs) {
+                if (!p.waitFor(10, TimeUnit.SECONDS)) p.destroyForcibly();
+            }
+        }
+    }
+
+    private static void printDistributedResult(RiskAccumulator risk, Coordinator coordinator, long nanos) {
+        DecimalFormat cur = new DecimalFormat("#,##0.00");
+        DecimalFormat pct = new DecimalFormat("0.00%");
+        System.out.printf("  done in %.0f ms, %d worker(s) connected, %d lost, %d chunk(s) requeued%n", nanos / 1e6,
+                coordinator.connectedWorkers(), coordinator.lostWorkers(), coordinator.requeuedChunks());
+        System.out.println("  Mean terminal : " + cur.format(risk.terminal().mean()) + " over " + risk.terminal().count() + " paths");
+        System.out.println("  Mean max DD   : " + pct.format(risk.maxDrawdown().mean()));
+        for (double level : risk.levels()) {
+            System.out.printf("  %5.1f%%  VaR %8s  CVaR %8s%n", level * 100, pct.format(risk.valueAtRisk(level)), pct.format(risk.conditionalValueAtRisk(level)));
+        }
+    }
+
+    private static byte[] serialize(RiskAccumulator r) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            r.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Prices a strike x maturity grid of options on the demo Derivative's underlying in one pass. */
+    static void runOptions(long paths, long seed) {
+        Derivative lev = (Derivative) demoPortfolio().getHoldings().get(2);
+        double spot = 100.0, rate = 0.003;
+        OptionPricer pricer = new OptionPricer(ForkJoinPool.commonPool(), lev.getUnderlying(), spot, rate);
+        List<OptionContract> contracts = new ArrayList<>();
+        for (int maturity : new int[] { 3, 6, 12, 24 }) {
+            for (double strike = 80; strike <= 120; strike += 5) {
+                for (OptionContract.Style style : OptionContract.Style.values()) {
+                    for (OptionContract.Type type : OptionContract.Type.values()) contracts.add(new OptionContract(type, style, strike, maturity));
+                }
+            }
+        }
+        pricer.price(contracts, seed + 1, Math.min(paths, 50_000)); // warm-up
+        long t0 = System.nanoTime();
+        List<OptionQuote> quotes = pricer.price(contracts, seed, paths);
+        long nanos = System.nanoTime() - t0;
+        System.out.printf("=== %d contracts on %s (spot %.0f, sigma %.1f%%/period, r %.1f%%/period), %,d paths: %.0f ms, %,.0f paths/s ===%n",
+                contracts.size(), lev.getUnderlying().getSymbol(), spot, lev.getUnderlying().getVolatility() * 100, rate * 100, paths,
+                nanos / 1e6, paths / (nanos / 1e9));
+        System.out.println("  contract                      price    +/- SE    delta    gamma     vega   |  BS price  BS delta  BS gamma   BS vega");
+        for (OptionQuote q : quotes) {
+            if (q.contract.strike % 10 != 0 || q.contract.maturity == 6) continue; // print a subset
+            System.out.printf("  %-26s %8.4f  %8.4f  %7.4f  %7.5f  %7.3f", q.contract, q.price, q.stdError, q.delta, q.gamma, q.vega);
+            if (q.contract.style == OptionContract.Style.EUROPEAN) {
+                double[] bs = pricer.blackScholes(q.contract);
+                System.out.printf("   |  %8.4f  %8.4f  %8.5f  %8.3f", bs[0], bs[1], bs[2], bs[3]);
+            }
+            System.out.println();
+        }
+    }
+
+    /** Bootstrapped simulation from a CSV of prices; writes a synthetic one when none is given. */
+    static void runHistorical(Path csv, long paths, long seed) throws IOException {
+        if (csv == null) {
+            csv = Paths.get(System.getProperty("java.io.tmpdir"), "portfolio-history.csv");
+            if (!Files.exists(csv)) writeSyntheticHistory(csv, 200_000, 7L);
+        }
+        int periods = 24;
+        double initial = 100_000.0;
+        long t0 = System.nanoTime();
+        Path bin = csv.resolveSibling(csv.getFileName() + ".bin");
+        Files.deleteIfExists(bin);
+        HistoricalSeries.load(csv);
+        long t1 = System.nanoTime();
+        HistoricalSeries series = HistoricalSeries.load(csv); // second load reuses the binary file
+        long t2 = System.nanoTime();
+        System.out.printf("=== History %s: %d columns x %,d returns ===%n", csv, series.columns(), series.length());
+        System.out.printf("  CSV ingest + convert: %.0f ms (%.0f MB/s); reopen binary: %.2f ms%n", (t1 - t0) / 1e6,
+                Files.size(csv) / 1e6 / ((t1 - t0) / 1e9), (t2 - t1) / 1e6);
+
+        Portfolio pf = new Portfolio();
+        double[] w = { 0.4, 0.3, 0.3 };
+        for (int c = 0; c < Math.min(3, series.columns()); c++) pf.add(new HistoricalInstrument(series.symbol(c), w[c], series, 20.0));
+        pf.add(new Stock("TECH", 0.2, 0.0004, 0.015));
+
+        MonteCarloEngine engine = new MonteCarloEngine();
+        long s0 = System.nanoTime();
+        RiskAccumulator risk = engine.risk(pf, periods, initial, seed, paths, 0.95, 0.99);
+        long s1 = System.nanoTime();
+        DecimalFormat cur = new DecimalFormat("#,##0.00");
+        System.out.printf("  %,d bootstrapped paths x %d periods (mean block 20): %.0f ms, %,.0f paths/s%n", paths, periods,
+                (s1 - s0) / 1e6, paths / ((s1 - s0) / 1e9));
+        System.out.println("  Mean terminal : " + cur.format(risk.terminal().mean()));
+        System.out.printf("  VaR / CVaR 95%% : %.2f%% / %.2f%%%n", risk.valueAtRisk(0.95) * 100, risk.conditionalValueAtRisk(0.95) * 100);
+        System.out.printf("  VaR / CVaR 99%% : %.2f%% / %.2f%%%n", risk.valueAtRisk(0.99) * 100, risk.conditionalValueAtRisk(0.99) * 100);
+        ForkJoinPool single = new ForkJoinPool(1);
+        boolean same = Arrays.equals(engine.terminalValues(pf, periods, initial, seed, 20_000).getTerminalValues(),
+                new MonteCarloEngine(single).terminalValues(pf, periods, initial, seed, 20_000).getTerminalValues());
+        single.shutdown();
+        System.out.println("  same paths on a 1-thread pool: " + same);
+    }
+
+    /** Daily prices with volatility regimes, for trying the historical path without real data. */
+    static void writeSyntheticHistory(Path csv, int days, long seed) throws IOException {
+        SplittableRandom r = new SplittableRandom(seed);
+        String[] names = { "EQUITY", "CREDIT", "GOLD" };
+        double[] price = { 100, 100, 100 }, drift = { 0.0003, 0.00015, 0.0002 }, vol = { 0.011, 0.004, 0.009 };
+        StringBuilder sb = new StringBuilder("date,").append(String.join(",", names)).append('\n');
+        double regime = 1.0;
+        java.time.LocalDate date = java.time.LocalDate.of(1990, 1, 1);
+        for (int d = 0; d < days; d++) {
+            if (r.nextDouble() < 0.01) regime = regime == 1.0 ? 2.5 : 1.0;
+            double common = r.nextGaussian();
+            sb.append(date.plusDays(d));
+            for (int c = 0; c < names.length; c++) {
+                double z = c == 2 ? r.nextGaussian() : 0.6 * common + 0.8 * r.nextGaussian();
+                price[c] *= 1.0 + drift[c] + vol[c] * regime * z;
+                sb.append(',').append(String.format("%.4f", price[c]));
+            }
+            sb.append('\n');
+        }
+        Files.writeString(csv, sb);
+    }
+
+    static void runFrontier(int instruments) {
+        double riskFree = 0.003; // per period
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        FrontierOptimizer opt = new FrontierOptimizer(pool);
+
+        Portfolio pf = demoPortfolio();
+        MeanVariance mv = MeanVariance.analytic(pool, pf);
+        List<FrontierPoint> frontier = opt.frontier(mv, 12, riskFree);
+        System.out.println("=== Efficient frontier (demo portfolio, analytic moments, per period) ===");
+        System.out.println("       lambda    E[r]      vol   Sharpe   weights " + Arrays.toString(mv.symbols));
+        for (FrontierPoint fp : frontier) {
+            System.out.printf("  %11.4g  %6.3f%%  %6.3f%%  %6.3f   %s%n", fp.lambda, fp.expectedReturn * 100, fp.volatility * 100, fp.sharpe, formatWeights(fp.weights, 3));
+        }
+        FrontierPoint best = opt.maxSharpe(mv, frontier, riskFree);
+        System.out.printf("  max Sharpe %.4f at weights %s%n", best.sharpe, formatWeights(best.weights, 3));
+
+        ReturnCube cube = ReturnCube.build(pool, pf, 24, 42L, 100_000);
+        MeanVariance sampled = MeanVariance.fromCube(pool, cube, mv.symbols);
+        FrontierPoint sampledBest = opt.maxSharpe(sampled, opt.frontier(sampled, 12, riskFree), riskFree);
+        System.out.printf("  from 100,000 simulated paths: max Sharpe %.4f at weights %s%n", sampledBest.sharpe, formatWeights(sampledBest.weights, 3));
+
+        pf.setWeights(best.weights);
+        double[] path = pf.simulate(24, 100_000.0, 42L);
+        System.out.printf("  optimized demo portfolio, final value after 24 periods: %s%n", new DecimalFormat("#,##0.00").format(path[24]));
+
+        Portfolio big = randomPortfolio(instruments, 3L);
+        long t0 = System.nanoTime();
+        MeanVariance bigMv = MeanVariance.analytic(pool, big);
+        long t1 = System.nanoTime();
+        List<FrontierPoint> bigFrontier = opt.frontier(bigMv, 16, riskFree);
+        FrontierPoint bigBest = opt.maxSharpe(bigMv, bigFrontier, riskFree);
+        long t2 = System.nanoTime();
+        int held = 0, iterations = 0;
+        for (double w : bigBest.weights) if (w > 1e-6) held++;
+        for (FrontierPoint fp : bigFrontier) iterations += fp.iterations;
+        System.out.printf("%n=== %,d instruments: covariance %.0f ms, 16-point frontier + max Sharpe %.0f ms (%,d iterations) ===%n",
+                instruments, (t1 - t0) / 1e6, (t2 - t1) / 1e6, iterations);
+        System.out.printf("  max Sharpe %.4f, E[r] %.3f%%, vol %.3f%%, %d instruments held%n", bigBest.sharpe, bigBest.expectedReturn * 100, bigBest.volatility * 100, held);
+        big.setWeights(bigBest.weights);
+    }
+
+    private static String formatWeights(double[] w, int max) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < Math.min(max, w.length); i++) sb.append(i > 0 ? ", " : "").append(String.format("%.3f", w[i]));
+        return sb.append(w.length > max ? ", ...]" : "]").toString();
+    }
+
+    /** Builds a return cube once, then times what-if reweightings against full resimulation. */
+    static void runWhatIf(long paths, long seed) {
+        int periods = 24;
+        double initial = 100_000.0;
+        Portfolio pf = demoPortfolio();
+        DecimalFormat cur = new DecimalFormat("#,##0.00");
+        MonteCarloEngine engine = new MonteCarloEngine();
+
+        long t0 = System.nanoTime();
+        ReturnCube cube = ReturnCube.build(ForkJoinPool.commonPool(), pf, periods, seed, paths);
+        long buildNanos = System.nanoTime() - t0;
+        System.out.printf("=== Return cube: %,d paths x %d periods x %d instruments, %,.0f MB, built in %.0f ms ===%n",
+                paths, periods, cube.holdings(), paths * periods * cube.holdings() * 8 / 1e6, buildNanos / 1e6);
+
+        double[] resim = engine.terminalValues(pf, periods, initial, seed, (int) paths).getTerminalValues();
+        double[] again = cube.reweight(pf.normalizedWeights(), initial).getTerminalValues();
+        double maxDiff = 0.0;
+        for (int i = 0; i < resim.length; i++) maxDiff = Math.max(maxDiff, Math.abs(resim[i] - again[i]) / resim[i]);
+        System.out.printf("  original weights vs engine: max rel. diff %.1e%n", maxDiff);
+
+        System.out.println("  weights (TECH/BOND/LEV)     mean       5%        reweight    resimulate");
+        double[][] trials = { { 0.5, 0.3, 0.2 }, { 0.7, 0.2, 0.1 }, { 0.3, 0.6, 0.1 }, { 0.4, 0.2, 0.4 }, { 0.0, 1.0, 0.0 } };
+        for (double[] w : trials) {
+            long r0 = System.nanoTime();
+            MonteCarloResult r = cube.reweight(w, initial);
+            long r1 = System.nanoTime();
+            Portfolio trial = demoPortfolio();
+            for (int i = 0; i < w.length; i++) trial.getHoldings().get(i).setWeight(w[i]);
+            engine.terminalValues(trial, periods, initial, seed, (int) paths);
+            long r2 = System.nanoTime();
+            System.out.printf("  %.1f / %.1f / %.1f    %12s  %12s  %7.0f ms  %7.0f ms%n", w[0], w[1], w[2], cur.format(r.mean()),
+                    cur.format(r.quantile(0.05)), (r1 - r0) / 1e6, (r2 - r1) / 1e6);
+        }
+    }
+
+    static void runScenarioGrid(Path scenarioFile, long paths, long seed) throws IOException {
+        int periods = 24;
+        double initial = 100_000.0;
+        List<Scenario> scenarios = Scenario.parse(scenarioFile == null ? DEFAULT_SCENARIOS : Files.readAllLines(scenarioFile));
+        Path cacheDir = Paths.get(".scenario-cache");
+        ScenarioRunner runner = new ScenarioRunner(ForkJoinPool.commonPool(), cacheDir);
+        long t0 = System.nanoTime();
+        List<ScenarioResult> results = runner.run(CompiledPortfolio.compile(demoPortfolio()), scenarios, periods, initial, seed, paths);
+        long nanos = System.nanoTime() - t0;
+        System.out.printf("=== %d scenarios x %,d paths x %d periods, seed %d (%.0f ms) ===%n", scenarios.size(), paths, periods, seed, nanos / 1e6);
+        ScenarioRunner.writeTable(results, System.out);
+        ScenarioRunner.writeCsv(results, cacheDir.resolve("summary.csv"));
+        System.out.println("  summary written to " + cacheDir.resolve("summary.csv"));
+    }
+
+    static void runPathFile(Path file, long paths, long seed) throws IOException {
+        int periods = 24;
+        double initial = 100_000.0;
+        CompiledPortfolio cp = CompiledPortfolio.compile(demoPortfolio());
+        MonteCarloEngine engine = new MonteCarloEngine();
+        long t0 = System.nanoTime();
+        PathFile.write(engine, cp, periods, initial, seed, paths, file);
+        long nanos = System.nanoTime() - t0;
+        long bytes = Files.size(file);
+        System.out.printf("=== Wrote %,d paths x %d periods to %s: %,.1f MB in %.0f ms (%.0f MB/s) ===%n",
+                paths, periods, file, bytes / 1e6, nanos / 1e6, bytes / 1e6 / (nanos / 1e9));
+
+        try (PathFile.Reader reader = new PathFile.Reader(file)) {
+            double[][] page = new double[4][reader.periods() + 1];
+            long from = reader.paths() / 2;
+            reader.readPaths(from, page);
+            DecimalFormat cur = new DecimalFormat("#,##0.00");
+            for (int i = 0; i < page.length; i++) {
+                System.out.printf("  path %,d: t=0 %s  t=%d %s  t=%d %s%n", from + i, cur.format(page[i][0]),
+                        periods / 2, cur.format(page[i][periods / 2]), periods, cur.format(page[i][periods]));
+            }
+            // Page through the terminal column and compare with an in-memory run.
+            double[] expected = engine.terminalValues(demoPortfolio(), periods, initial, seed, (int) Math.min(paths, 1_000_000)).getTerminalValues();
+            double[] chunk = new double[65_536];
+            long mismatches = 0;
+            for (long start = 0; start < expected.length; start += chunk.length) {
+                int n = (int) Math.min(chunk.length, expected.length - start);
+                double[] part = n == chunk.length ? chunk : new double[n];
+                reader.readColumn(periods, start, part);
+                for (int i = 0; i < n; i++) if (part[i] != expected[(int) start + i]) mismatches++;
+            }
+            System.out.printf("  terminal column vs in-memory run: %,d of %,d values differ%n", mismatches, expected.length);
+        }
+    }
+
+    static void runRiskReport(long paths, long seed) {
+        Portfolio pf = demoPortfolio();
+        int periods = 24;
+        double initial = 100_000.0;
+        double[] levels = { 0.95, 0.99, 0.999 };
+        DecimalFormat cur = new DecimalFormat("#,##0.00");
+        DecimalFormat pct = new DecimalFormat("0.00%");
+
+        MonteCarloEngine engine = new MonteCarloEngine();
+        long t0 = System.nanoTime();
+        RiskAccumulator risk = engine.risk(pf, periods, initial, seed, paths, levels);
+        long nanos = System.nanoTime() - t0;
+        System.out.printf("=== Streaming risk: %,d paths x %d periods, seed %d (%.0f ms) ===%n", paths, periods, seed, nanos / 1e6);
+        System.out.println("  Mean terminal : " + cur.format(risk.terminal().mean()));
+        System.out.println("  Std dev       : " + cur.format(risk.terminal().stdDev()));
+        System.out.println("  Min / Max     : " + cur.format(risk.terminal().min()) + " / " + cur.format(risk.terminal().max()));
+        System.out.println("  Mean max DD   : " + pct.format(risk.maxDrawdown().mean()));
+        System.out.println("  level        VaR      CVaR    DD quantile");
+        for (double level : levels) {
+            System.out.printf("  %5.1f%%  %8s  %8s  %13s%n", level * 100, pct.format(risk.valueAtRisk(level)),
+                    pct.format(risk.conditionalValueAtRisk(level)), pct.format(risk.drawdownQuantile(level)));
+        }
+        if (paths <= 2_000_000) { // small enough to check the sketch against the exact order statistics
+            double[] end = engine.terminalValues(pf, periods, initial, seed, (int) paths).getTerminalValues();
+            Arrays.sort(end);
+            System.out.println("  exact check:");
+            for (double level : levels) {
+                int k = (int) Math.floor((1.0 - level) * end.length);
+                double tail = 0.0;
+                for (int i = 0; i < Math.max(1, k); i++) tail += end[i];
+                System.out.printf("  %5.1f%%  %8s  %8s%n", level * 100, pct.format(1.0 - end[Math.max(0, k - 1)] / initial),
+                        pct.format(1.0 - tail / Math.max(1, k) / initial));
+            }
+        }
+    }
+
+    /** Standard error and CPU cost of each variance-reduction method for the same path budget. */
+    static void runVarianceReduction(long paths, long seed) {
+        int periods = 24;
+        CompiledPortfolio cp = CompiledPortfolio.compile(demoPortfolio());
+        VarianceReducedEstimator est = new VarianceReducedEstimator(ForkJoinPool.commonPool());
+        Object[][] runs = {
+                { VarianceReducedEstimator.Method.PLAIN, VarianceReducedEstimator.NormalTransform.INVERSE_CDF, "plain" },
+                { VarianceReducedEstimator.Method.ANTITHETIC, VarianceReducedEstimator.NormalTransform.INVERSE_CDF, "antithetic" },
+                { VarianceReducedEstimator.Method.CONTROL_VARIATE, VarianceReducedEstimator.NormalTransform.INVERSE_CDF, "control variate" },
+                { VarianceReducedEstimator.Method.SOBOL, VarianceReducedEstimator.NormalTransform.INVERSE_CDF, "sobol + inv. CDF" },
+                { VarianceReducedEstimator.Method.SOBOL, VarianceReducedEstimator.NormalTransform.BOX_MULLER, "sobol + Box-Muller" },
+        };
+        for (Object[] run : runs) { // fail before printing a partial table
+            long min = VarianceReducedEstimator.minPaths((VarianceReducedEstimator.Method) run[0]);
+            if (paths < min) throw new IllegalArgumentException(run[2] + " needs at least " + min + " paths, got " + paths);
+        }
+        System.out.printf("=== Expected %d-period return, %,d paths, seed %d ===%n", periods, paths, seed);
+        System.out.println("  method                 estimate     std. error      time   var. reduction   plain paths for same SE");
+        VarianceReducedEstimator.Estimate plain = null;
+        for (Object[] run : runs) {
+            VarianceReducedEstimator.Method method = (VarianceReducedEstimator.Method) run[0];
+            VarianceReducedEstimator.NormalTransform transform = (VarianceReducedEstimator.NormalTransform) run[1];
+            est.estimate(cp, periods, seed + 1, Math.min(paths, 100_000), method, transform); // warm-up
+            VarianceReducedEstimator.Estimate e = est.estimate(cp, periods, seed, paths, method, transform);
+            if (plain == null) plain = e;
+            double ratio = (plain.stdError / e.stdError) * (plain.stdError / e.stdError);
+            System.out.printf("  %-20s  %+.6f%%  %11.2e  %6.0f ms  %14.1fx  %,24.0f%n", run[2], e.mean * 100, e.stdError,
+                    e.nanos / 1e6, ratio, e.paths * ratio);
+        }
+        // Period returns are i.i.d. here, so the target has a closed form to check against.
+        System.out.printf("  exact: (1 + E[r])^%d - 1 = %+.6f%%%n", periods, (Math.pow(1.0 + cp.expectedReturn(), periods) - 1.0) * 100);
+    }
+
+    /** Random portfolio of n instruments (stocks, bonds and derivatives on the stocks) for benchmarks. */
+    static Portfolio randomPortfolio(int n, long seed) {
+        Random r = new Random(seed);
+        Portfolio pf = new Portfolio();
+        List<Stock> stocks = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int kind = stocks.isEmpty() ? 0 : r.nextInt(3);
+            if (kind == 0) {
+                Stock s = new Stock("S" + i, r.nextDouble(), 0.002 + 0.01 * r.nextDouble(), 0.02 + 0.08 * r.nextDouble());
+                stocks.add(s);
+                pf.add(s);
+            } else if (kind == 1) {
+                pf.add(new Bond("B" + i, r.nextDouble(), 0.002 + 0.004 * r.nextDouble(), 1 + 9 * r.nextDouble(), 0.0002 + 0.001 * r.nextDouble()));
+            } else {
+                pf.add(new Derivative("D" + i, r.nextDouble(), stocks.get(r.nextInt(stocks.size())), 1 + 2 * r.nextDouble(), 0.001 + 0.002 * r.nextDouble()));
+            }
+        }
+        return pf;
+    }
+
+    /** Draws/s and moments of each normal generator, then engine paths/s with each as the block stream. */
+    static void runNormalBenchmark(long draws) {
+        Object[][] generators = {
+                { "Random.nextGaussian (polar)", new Random(1), false },
+                { "SplittableRandom.nextGaussian", new SplittableRandom(1), false },
+                { "ZigguratNormal.nextGaussian", new ZigguratNormal(1), false },
+                { "ZigguratNormal.fill", new ZigguratNormal(1), true },
+                { "BoxMullerNormal.fill", new BoxMullerNormal(1), true },
+        };
+        System.out.printf("=== Normal generators: %,d draws, one thread ===%n", draws);
+        System.out.println("  generator                        Mdraws/s     mean    variance   skew    ex.kurt   P(|z|>3)");
+        double[] buf = new double[4096];
+        for (Object[] g : generators) {
+            RandomGenerator rng = (RandomGenerator) g[1];
+            boolean bulk = (Boolean) g[2];
+            for (int i = 0; i < 500; i++) drawInto(rng, bulk, buf); // warm-up
+            double s1 = 0, s2 = 0, s3 = 0, s4 = 0;
+            long beyond3 = 0, n = 0;
+            long t0 = System.nanoTime(), nanos = 0;
+            while (n < draws) {
+                long c0 = System.nanoTime();
+                drawInto(rng, bulk, buf);
+                nanos += System.nanoTime() - c0;
+                for (double z : buf) {
+                    double z2 = z * z;
+                    s1 += z; s2 += z2; s3 += z2 * z; s4 += z2 * z2;
+                    if (z2 > 9.0) beyond3++;
+                }
+                n += buf.length;
+            }
+            double mean = s1 / n, var = s2 / n - mean * mean;
+            System.out.printf("  %-31s %9.1f  %+8.5f  %8.5f  %+7.4f  %+7.4f  %8.6f%n", g[0], n / (nanos / 1e3),
+                    mean, var, s3 / n / Math.pow(var, 1.5), s4 / n / (var * var) - 3.0, (double) beyond3 / n);
+        }
+        System.out.printf("  %-31s %9s  %+8.5f  %8.5f  %+7.4f  %+7.4f  %8.6f%n", "exact N(0,1)", "", 0.0, 1.0, 0.0, 0.0, 2 * (1 - OptionPricer.normalCdf(3.0)));
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Random shared = new Random(1);
+        long perThread = draws / threads;
+        System.out.printf("%n=== %d threads, %,d draws each ===%n", threads, perThread);
+        Object[][] contended = {
+                { "one shared java.util.Random", (IntFunction<RandomGenerator>) t -> shared, false },
+                { "Random per thread", (IntFunction<RandomGenerator>) t -> new Random(t), false },
+                { "ZigguratNormal per thread", (IntFunction<RandomGenerator>) t -> new ZigguratNormal(t), true },
+        };
+        for (Object[] c : contended) {
+            @SuppressWarnings("unchecked") IntFunction<RandomGenerator> make = (IntFunction<RandomGenerator>) c[1];
+            boolean bulk = (Boolean) c[2];
+            long t0 = System.nanoTime();
+            pool.invoke(new BlockAction(0, threads, t -> {
+                RandomGenerator rng = make.apply(t);
+                double[] b = new double[4096];
+                for (long n = 0; n < perThread; n += b.length) drawInto(rng, bulk, b);
+            }));
+            long nanos = System.nanoTime() - t0;
+            System.out.printf("  %-31s %9.1f Mdraws/s%n", c[0], perThread * threads / (nanos / 1e3));
+        }
+
+        int periods = 24;
+        Object[][] streams = {
+                { "Random", (MonteCarloEngine.BlockStreams) (seed, b) -> new Random(Xoshiro256.blockSeed(seed, b)) },
+                { "SplittableRandom (default)", (MonteCarloEngine.BlockStreams) MonteCarloEngine::blockRandom },
+                { "ZigguratNormal", (MonteCarloEngine.BlockStreams) ZigguratNormal::forBlock },
+                { "BoxMullerNormal", (MonteCarloEngine.BlockStreams) BoxMullerNormal::forBlock },
+        };
+        for (int n : new int[] { 3, 300 }) {
+            CompiledPortfolio cp = CompiledPortfolio.compile(n == 3 ? demoPortfolio() : randomPortfolio(n, 11L));
+            long paths = n == 3 ? 1_000_000L : 100_000L;
+            System.out.printf("%n=== Engine, %d instruments (%d draws per period), %,d paths x %d periods ===%n", n, cp.shockCount(), paths, periods);
+            System.out.println("  block stream                      paths/s     mean terminal");
+            for (Object[] st : streams) {
+                MonteCarloEngine engine = new MonteCarloEngine(pool, (MonteCarloEngine.BlockStreams) st[1]);
+                engine.run(cp, periods, 1.0, 7L, paths / 10, () -> new RiskAccumulator(), RiskAccumulator::merge); // warm-up
+                long t0 = System.nanoTime();
+                RiskAccumulator r = engine.run(cp, periods, 1.0, 42L, paths, () -> new RiskAccumulator(), RiskAccumulator::merge);
+                long nanos = System.nanoTime() - t0;
+                System.out.printf("  %-31s %10.0f   %.6f%n", st[0], paths / (nanos / 1e9), r.terminal().mean());
+            }
+        }
+        pool.shutdown();
+    }
+
+    private static void drawInto(RandomGenerator rng, boolean bulk, double[] buf) {
+        if (bulk) {
+            NormalGenerator.fill(rng, buf, 0, buf.length);
+        } else {
+            for (int i = 0; i < buf.length; i++) buf[i] = rng.nextGaussian();
+        }
+    }
+
+    /** Single-threaded paths/s of the object-oriented path versus the compiled kernel. */
+    static void runKernelBenchmark() {
+        int periods = 24;
+        System.out.println("=== Kernel benchmark (single thread, SplittableRandom, 24 periods) ===");
+        System.out.println("  instruments   object path/s   compiled path/s   speedup   max rel. diff");
+        for (int n : new int[] { 3, 30, 300, 3000 }) {
+            Portfolio pf = n == 3 ? demoPortfolio() : randomPortfolio(n, 11L);
+            CompiledPortfolio cp = CompiledPortfolio.compile(pf);
+            double[] w = pf.normalizedWeights();
+            double[] a = new double[periods + 1], b = new double[periods + 1], z = new double[cp.shockCount()];
+            int paths = Math.max(200, 3_000_000 / n);
+
+            double maxDiff = 0.0;
+            for (int i = 0; i < 100; i++) {
+                pf.simulatePath(w, new SplittableRandom(i), 100.0, a);
+                cp.simulatePath(new SplittableRandom(i), z, 100.0, b);
+                maxDiff = Math.max(maxDiff, Math.abs(a[periods] - b[periods]) / a[periods]);
+            }
+            double oo = 0, compiled = 0;
+            for (int round = 0; round < 3; round++) { // last round counts; earlier ones warm up the JIT
+                SplittableRandom rng = new SplittableRandom(1);
+                long t0 = System.nanoTime();
+                for (int i = 0; i < paths; i++) pf.simulatePath(w, rng, 100.0, a);
+                long t1 = System.nanoTime();
+                rng = new SplittableRandom(1);
+                for (int i = 0; i < paths; i++) cp.simulatePath(rng, z, 100.0, b);
+                long t2 = System.nanoTime();
+                oo = paths / ((t1 - t0) / 1e9);
+                compiled = paths / ((t2 - t1) / 1e9);
+            }
+            System.out.printf("  %11d  %14.0f  %16.0f  %7.2fx   %.1e%n", n, oo, compiled, compiled / oo, maxDiff);
+        }
+
+        // Correlated drivers: the same 8-factor structure as a full Cholesky factor and as a FactorModel.
+        int d = 1000, k = 8;
+        Random r = new Random(5);
+        Portfolio pf = new Portfolio();
+        double[][] loadings = new double[d][k];
+        for (int i = 0; i < d; i++) {
+            pf.add(new Stock("S" + i, r.nextDouble(), 0.002 + 0.01 * r.nextDouble(), 0.02 + 0.08 * r.nextDouble()));
+            for (int j = 0; j < k; j++) loadings[i][j] = (r.nextDouble() - 0.3) * 0.3;
+        }
+        double[][] corr = new double[d][d];
+        for (int i = 0; i < d; i++) {
+            for (int j = 0; j < d; j++) {
+                double c = 0.0;
+                for (int f = 0; f < k; f++) c += loadings[i][f] * loadings[j][f];
+                corr[i][j] = i == j ? 1.0 : c;
+            }
+        }
+        System.out.printf("%n=== Correlated drivers (%d stocks, %d factors) ===%n", d, k);
+        System.out.println("  model        compile ms   object path/s   compiled path/s");
+        for (int variant = 0; variant < 2; variant++) {
+            long c0 = System.nanoTime();
+            pf.setCorrelationModel(variant == 0 ? new CholeskyCorrelation(corr) : new FactorModel(loadings));
+            CompiledPortfolio cp = CompiledPortfolio.compile(pf);
+            long c1 = System.nanoTime();
+            double[] w = pf.normalizedWeights();
+            double[] a = new double[periods + 1], z = new double[cp.shockCount()];
+            int paths = 300;
+            double oo = 0, compiled = 0;
+            for (int round = 0; round < 3; round++) {
+                SplittableRandom rng = new SplittableRandom(1);
+                long t0 = System.nanoTime();
+                for (int i = 0; i < paths; i++) pf.simulatePath(w, rng, 100.0, a);
+                long t1 = System.nanoTime();
+                for (int i = 0; i < paths * 10; i++) cp.simulatePath(rng, z, 100.0, a);
+                long t2 = System.nanoTime();
+                oo = paths / ((t1 - t0) / 1e9);
+                compiled = paths * 10 / ((t2 - t1) / 1e9);
+            }
+            System.out.printf("  %-10s  %11.1f  %14.0f  %16.0f%n", variant == 0 ? "cholesky" : "factor", (c1 - c0) / 1e6, oo, compiled);
+        }
+    }
+
+    // ====== Demo (Main) ======
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("normals")) {
+            runNormalBenchmark(args.length > 1 ? Long.parseLong(args[1]) : 20_000_000L);
+            return;
+        }
+        if (args.length > 0 && (args[0].equals("distributed") || args[0].equals("coordinator") || args[0].equals("worker"))) {
+            try {
+                if (args[0].equals("worker")) {
+                    runWorker(args.length > 1 ? args[1] : "localhost", args.length > 2 ? Integer.parseInt(args[2]) : 5000,
+                            args.length > 3 ? Integer.parseInt(args[3]) : -1, msg -> System.out.println("  " + msg));
+                } else if (args[0].equals("coordinator")) {
+                    runCoordinator(args.length > 1 ? Integer.parseInt(args[1]) : 5000, args.length > 2 ? Long.parseLong(args[2]) : 2_000_000L,
+                            args.length > 3 ? Long.parseLong(args[3]) : 42L);
+                } else {
+                    runDistributed(args.length > 1 ? Integer.parseInt(args[1]) : 3, args.length > 2 ? Long.parseLong(args[2]) : 2_000_000L,
+                            args.length > 3 ? Long.parseLong(args[3]) : 42L);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("bench")) {
+            runKernelBenchmark();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("options")) {
+            runOptions(args.length > 1 ? Long.parseLong(args[1]) : 500_000L, args.length > 2 ? Long.parseLong(args[2]) : 42L);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("historical")) {
+            try {
+                runHistorical(args.length > 1 && !args[1].equals("-") ? Paths.get(args[1]) : null,
+                        args.length > 2 ? Long.parseLong(args[2]) : 200_000L, args.length > 3 ? Long.parseLong(args[3]) : 42L);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("frontier")) {
+            runFrontier(args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("whatif")) {
+            runWhatIf(args.length > 1 ? Long.parseLong(args[1]) : 250_000L, args.length > 2 ? Long.parseLong(args[2]) : 42L);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("scenarios")) {
+            try {
+                runScenarioGrid(args.length > 1 && !args[1].equals("-") ? Paths.get(args[1]) : null,
+                        args.length > 2 ? Long.parseLong(args[2]) : 200_000L, args.length > 3 ? Long.parseLong(args[3]) : 42L);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("paths")) {
+            try {
+                runPathFile(Paths.get(args.length > 1 ? args[1] : "paths.bin"), args.length > 2 ? Long.parseLong(args[2]) : 1_000_000L,
+                        args.length > 3 ? Long.parseLong(args[3]) : 42L);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("vr")) {
+            runVarianceReduction(args.length > 1 ? Long.parseLong(args[1]) : 1_048_576L, args.length > 2 ? Long.parseLong(args[2]) : 42L);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("risk")) {
+            runRiskReport(args.length > 1 ? Long.parseLong(args[1]) : 1_000_000L, args.length > 2 ? Long.parseLong(args[2]) : 42L);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("mc")) {
+            runMonteCarlo(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000, args.length > 2 ? Long.parseLong(args[2]) : 42L,
+                    args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors());
+            return;
+        }
+
         // Create instruments
         // Stock: expectedReturn ~ 0.8% per period, vol ~ 5% per period
         Stock techStock = new Stock("TECH", 0.50, 0.008, 0.05);